@@ -13,6 +13,8 @@ public class Cube {
     private final FloatBuffer vertexBuffer;
     private final ShortBuffer indexBuffer;
     private final float[] modelMatrix = new float[16];
+    // Итоговая матрица кадра; переиспользуется, чтобы draw ничего не выделял
+    private final float[] mvpMatrix = new float[16];
     private final boolean[] visibleFaces;
     private final float[][] faceColors;
     private final Context context;
@@ -62,15 +64,11 @@ public class Cube {
         faceColors[5] = new float[]{1.0f, 0.0f, 0.0f, 1.0f};
     }
 
-    public void draw(float[] vpMatrix, int program) {
-        float[] finalMatrix = new float[16];
-        Matrix.multiplyMM(finalMatrix, 0, vpMatrix, 0, modelMatrix, 0);
+    // vpMatrix - произведение проекции и вида, считается один раз за кадр; хэндлы получаются при линковке программы
+    public void draw(float[] vpMatrix, int mvpHandle, int positionHandle, int colorHandle) {
+        Matrix.multiplyMM(mvpMatrix, 0, vpMatrix, 0, modelMatrix, 0);
 
-        int mvpHandle = GLES20.glGetUniformLocation(program, "uMVPMatrix");
-        int positionHandle = GLES20.glGetAttribLocation(program, "vPosition");
-        int colorHandle = GLES20.glGetUniformLocation(program, "vColor");
-
-        GLES20.glUniformMatrix4fv(mvpHandle, 1, false, finalMatrix, 0);
+        GLES20.glUniformMatrix4fv(mvpHandle, 1, false, mvpMatrix, 0);
         GLES20.glEnableVertexAttribArray(positionHandle);
         GLES20.glVertexAttribPointer(positionHandle, 3, GLES20.GL_FLOAT, false, 0, vertexBuffer);
 
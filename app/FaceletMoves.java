@@ -0,0 +1,184 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Таблицы перестановок развёртки для 18 ходов. Ход move = 3 * ось + степень - 1, оси в порядке URFDLB
+ * (0 = U, 1 = U2, 2 = U', 3 = R, ...), как у решателя и MoveSequence. Развёртка - в порядке решателя
+ * (U 0..8, R 9..17, F 18..26, D 27..35, L 36..44, B 45..53), поэтому решение из решателя, применённое
+ * к развёртке, собирает куб.
+ *
+ * После хода наклейка i берёт значение наклейки PERM[move][i], так что ход - это один проход без аллокаций.
+ * Последовательность ходов сворачивается в одну такую же перестановку (compose) и применяется за один проход.
+ */
+public final class FaceletMoves {
+    public static final int FACELET_COUNT = 54;
+    public static final int MOVE_COUNT = 18;
+
+    private static final String AXES = "URFDLB";
+
+    // Поворот грани по часовой стрелке (порядок осей URFDLB) - пять циклов по 4 наклейки: три цикла соседних
+    // рядов и два цикла самой грани. Наклейка cycle[k] переходит на место cycle[k + 1]. Циклы те же, что дают
+    // ходы решателя (cubiecube.cpp) через cornerFacelet/edgeFacelet.
+    private static final int[][][] QUARTER_TURN_CYCLES = {
+            {{0, 2, 8, 6}, {1, 5, 7, 3}, {9, 18, 36, 45}, {10, 19, 37, 46}, {11, 20, 38, 47}},
+            {{2, 51, 29, 20}, {5, 48, 32, 23}, {8, 45, 35, 26}, {9, 11, 17, 15}, {10, 14, 16, 12}},
+            {{6, 9, 29, 44}, {7, 12, 28, 41}, {8, 15, 27, 38}, {18, 20, 26, 24}, {19, 23, 25, 21}},
+            {{15, 51, 42, 24}, {16, 52, 43, 25}, {17, 53, 44, 26}, {27, 29, 35, 33}, {28, 32, 34, 30}},
+            {{0, 18, 27, 53}, {3, 21, 30, 50}, {6, 24, 33, 47}, {36, 38, 44, 42}, {37, 41, 43, 39}},
+            {{0, 42, 35, 11}, {1, 39, 34, 14}, {2, 36, 33, 17}, {45, 47, 53, 51}, {46, 50, 52, 48}},
+    };
+
+    static final byte[][] PERM = new byte[MOVE_COUNT][FACELET_COUNT];
+
+    private static final byte[] IDENTITY = new byte[FACELET_COUNT];
+
+    // Сколько последних свёрнутых последовательностей помнит compose
+    private static final int COMPOSE_CACHE_SIZE = 64;
+
+    private static final Map<SequenceKey, byte[]> composeCache =
+            new LinkedHashMap<SequenceKey, byte[]>(COMPOSE_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<SequenceKey, byte[]> eldest) {
+                    return size() > COMPOSE_CACHE_SIZE;
+                }
+            };
+
+    static {
+        int[] state = new int[FACELET_COUNT];
+        for (int move = 0; move < MOVE_COUNT; move++) {
+            for (int i = 0; i < FACELET_COUNT; i++) {
+                state[i] = i;
+            }
+            int axis = move / 3;
+            int power = move % 3 + 1;
+            // U' - один поворот против часовой стрелки, U2 - два по часовой
+            boolean clockwise = power != 3;
+            int rotations = power == 2 ? 2 : 1;
+            for (int r = 0; r < rotations; r++) {
+                for (int[] cycle : QUARTER_TURN_CYCLES[axis]) {
+                    rotateCycle(state, cycle, clockwise);
+                }
+            }
+            for (int i = 0; i < FACELET_COUNT; i++) {
+                PERM[move][i] = (byte) state[i];
+            }
+        }
+        for (int i = 0; i < FACELET_COUNT; i++) {
+            IDENTITY[i] = (byte) i;
+        }
+    }
+
+    private FaceletMoves() {
+    }
+
+    // dst[i] = src[PERM[move][i]]; src и dst - разные массивы по 54 элемента
+    public static void apply(int move, byte[] src, byte[] dst) {
+        byte[] perm = PERM[move];
+        for (int i = 0; i < FACELET_COUNT; i++) {
+            dst[i] = src[perm[i]];
+        }
+    }
+
+    // dst[i] = src[perm[i]] для перестановки из compose или MovePlayback
+    public static void permute(byte[] perm, byte[] src, byte[] dst) {
+        for (int i = 0; i < FACELET_COUNT; i++) {
+            dst[i] = src[perm[i]];
+        }
+    }
+
+    // Перестановка "сначала perm, потом move": dst[i] = perm[PERM[move][i]]
+    public static void appendMove(byte[] perm, int move, byte[] dst) {
+        apply(move, perm, dst);
+    }
+
+    public static byte[] identity() {
+        return IDENTITY.clone();
+    }
+
+    /**
+     * Одна перестановка, равная всей последовательности ходов. Результат общий для одинаковых
+     * последовательностей (недавние берутся из кэша), его нельзя изменять.
+     */
+    public static byte[] compose(byte[] moves) {
+        SequenceKey key = new SequenceKey(moves);
+        synchronized (composeCache) {
+            byte[] cached = composeCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        byte[] perm = IDENTITY.clone();
+        byte[] next = new byte[FACELET_COUNT];
+        for (byte m : moves) {
+            appendMove(perm, m, next);
+            byte[] t = perm;
+            perm = next;
+            next = t;
+        }
+        synchronized (composeCache) {
+            composeCache.put(key, perm);
+        }
+        return perm;
+    }
+
+    // Индекс хода по записи "R", "U2", "F'"; -1 если это не ход
+    public static int parseMove(String move) {
+        if (move == null || move.isEmpty()) return -1;
+        int axis = AXES.indexOf(move.charAt(0));
+        if (axis < 0) return -1;
+        int power = 1;
+        if (move.indexOf('\'') >= 0) {
+            power = 3;
+        } else if (move.indexOf('2') >= 0) {
+            power = 2;
+        }
+        return 3 * axis + power - 1;
+    }
+
+    // Цвет наклейки: 0..5 для URFDLB, 6 для любого другого символа
+    public static byte encode(char c) {
+        int color = AXES.indexOf(c);
+        return (byte) (color < 0 ? AXES.length() : color);
+    }
+
+    public static char decode(byte color) {
+        return color < AXES.length() ? AXES.charAt(color) : ' ';
+    }
+
+    private static void rotateCycle(int[] state, int[] indices, boolean clockwise) {
+        if (clockwise) {
+            int temp = state[indices[3]];
+            state[indices[3]] = state[indices[2]];
+            state[indices[2]] = state[indices[1]];
+            state[indices[1]] = state[indices[0]];
+            state[indices[0]] = temp;
+        } else {
+            int temp = state[indices[0]];
+            state[indices[0]] = state[indices[1]];
+            state[indices[1]] = state[indices[2]];
+            state[indices[2]] = state[indices[3]];
+            state[indices[3]] = temp;
+        }
+    }
+
+    private static final class SequenceKey {
+        private final byte[] moves;
+        private final int hash;
+
+        SequenceKey(byte[] moves) {
+            this.moves = moves.clone();
+            this.hash = Arrays.hashCode(moves);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SequenceKey && Arrays.equals(moves, ((SequenceKey) o).moves);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * Перемотка по последовательности ходов: для каждого шага k заранее свёрнута перестановка первых k ходов,
+ * так что переход к любому шагу - один проход по 54 наклейкам от исходной развёртки, независимо от длины
+ * последовательности и от того, с какого шага переходим.
+ */
+public final class MovePlayback {
+    // prefix[k] - перестановка первых k ходов
+    private final byte[][] prefix;
+
+    public MovePlayback(byte[] moves) {
+        prefix = new byte[moves.length + 1][];
+        prefix[0] = FaceletMoves.identity();
+        for (int k = 0; k < moves.length; k++) {
+            prefix[k + 1] = new byte[FaceletMoves.FACELET_COUNT];
+            FaceletMoves.appendMove(prefix[k], moves[k], prefix[k + 1]);
+        }
+    }
+
+    // Число ходов; шаги - от 0 (исходная развёртка) до length()
+    public int length() {
+        return prefix.length - 1;
+    }
+
+    // Развёртка после первых step ходов: dst[i] = start[permutation(step)[i]]. Массив нельзя изменять.
+    public byte[] permutation(int step) {
+        return prefix[step];
+    }
+}
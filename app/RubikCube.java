@@ -16,11 +16,72 @@ public class RubikCube {
     private final float cubeSize;
     private final Context context;
 
+    // Цвета наклеек по коду FaceletMoves.encode (URFDLB), последний - для неизвестных символов
+    private static final float[][] FACELET_COLORS = {
+            {1, 1, 1, 1},       // U Белый
+            {1, 0, 0, 1},       // R Красный
+            {0, 1, 0, 1},       // F Зеленый
+            {1, 1, 0, 1},       // D Желтый
+            {1, 0.5f, 0, 1},    // L Оранжевый
+            {0, 0, 1, 1},       // B Синий
+            {1, 1, 1, 1},       // Белый по умолчанию
+    };
+
+    private static final float[] WHITE = {1, 1, 1, 1};
+
+    // Видимые грани кубиков (кубик * 6 + грань), которые берут цвет из наклейки i (см. getFaceletPosition)
+    private final int[][] faceletSlots;
+
+    // Последняя применённая развёртка; пока colorsApplied == false, грани могут не совпадать с ней
+    private final byte[] appliedFacelets = new byte[FaceletMoves.FACELET_COUNT];
+    private boolean colorsApplied = false;
+
+    // Программа, для которой получены хэндлы шейдера
+    private int handlesProgram = 0;
+    private int mvpHandle;
+    private int positionHandle;
+    private int colorHandle;
+
     public RubikCube(float size, Context context) {
         this.cubeSize = size;
         this.context = context;
         this.cubes = new Cube[CUBE_COUNT];
         initCubes();
+        faceletSlots = buildFaceletSlots();
+    }
+
+    private int[][] buildFaceletSlots() {
+        int[] counts = new int[54];
+        for (int i = 0; i < cubes.length; i++) {
+            for (int face = 0; face < 6; face++) {
+                if (cubes[i].isFaceVisible(face)) {
+                    counts[getFaceletPosition(i, face)]++;
+                }
+            }
+        }
+        int[][] slots = new int[54][];
+        for (int f = 0; f < 54; f++) {
+            slots[f] = new int[counts[f]];
+            counts[f] = 0;
+        }
+        for (int i = 0; i < cubes.length; i++) {
+            for (int face = 0; face < 6; face++) {
+                if (cubes[i].isFaceVisible(face)) {
+                    int f = getFaceletPosition(i, face);
+                    slots[f][counts[f]++] = i * 6 + face;
+                }
+            }
+        }
+        return slots;
+    }
+
+    // Перекрашивает только грани, которые показывают наклейку facelet; color - код FaceletMoves.encode
+    public void setFaceletColor(int facelet, byte color) {
+        appliedFacelets[facelet] = color;
+        float[] c = FACELET_COLORS[color];
+        for (int slot : faceletSlots[facelet]) {
+            cubes[slot / 6].setFaceColor(slot % 6, c);
+        }
     }
 
     private void initCubes() {
@@ -48,10 +109,17 @@ public class RubikCube {
         }
     }
 
-    public void draw(float[] mvpMatrix, int program) {
+    public void draw(float[] vpMatrix, int program) {
+        if (program != handlesProgram) {
+            // Хэндлы запрашиваются один раз для каждой новой программы, а не для каждого кубика в каждом кадре
+            mvpHandle = GLES20.glGetUniformLocation(program, "uMVPMatrix");
+            positionHandle = GLES20.glGetAttribLocation(program, "vPosition");
+            colorHandle = GLES20.glGetUniformLocation(program, "vColor");
+            handlesProgram = program;
+        }
         for (Cube cube : cubes) {
             if (cube != null) {
-                cube.draw(mvpMatrix, program);
+                cube.draw(vpMatrix, mvpHandle, positionHandle, colorHandle);
             }
         }
     }
@@ -168,84 +236,62 @@ public class RubikCube {
     }
 
 
+    // Сравнивает строку с последней применённой развёрткой и перекрашивает только изменившиеся наклейки.
+    // Ничего не выделяет, поэтому вызывается на каждый ввод символа.
     public void updateColors(String facelets) {
-        if (facelets == null || facelets.length() != 54) {
+        if (facelets == null || facelets.length() != FaceletMoves.FACELET_COUNT) {
             // Сбрасываем на белый цвет, если ввод невалидный
             resetAllToWhite();
             return;
         }
 
-        // Цвета по умолчанию (белые)
-        float[] defaultColor = {1.0f, 1.0f, 1.0f, 1.0f}; // Белый
-        Map<Character, float[]> colorMap = new HashMap<>();
-        colorMap.put('U', new float[]{1, 1, 1, 1});    // Белый (верх)
-        colorMap.put('D', new float[]{1, 1, 0, 1});    // Желтый (низ)
-        colorMap.put('F', new float[]{0, 1, 0, 1});    // Зеленый (перед)
-        colorMap.put('B', new float[]{0, 0, 1, 1});    // Синий (зад)
-        colorMap.put('L', new float[]{1, 0.5f, 0, 1}); // Оранжевый (лево)
-        colorMap.put('R', new float[]{1, 0, 0, 1});    // Красный (право)
-
-        for (int i = 0; i < cubes.length; i++) {
-            for (int face = 0; face < 6; face++) {
-                if (cubes[i].isFaceVisible(face)) {
-                    // Получаем символ из строки для текущей грани
-                    char colorChar = facelets.charAt(getFaceletPosition(i, face));
-                    float[] color = colorMap.getOrDefault(colorChar, defaultColor);
-                    cubes[i].setFaceColor(face, color);
-                }
+        for (int i = 0; i < FaceletMoves.FACELET_COUNT; i++) {
+            byte color = FaceletMoves.encode(facelets.charAt(i));
+            if (!colorsApplied || appliedFacelets[i] != color) {
+                setFaceletColor(i, color);
             }
         }
+        colorsApplied = true;
     }
-    private float[] getColorForChar(char c) {
-        switch (Character.toUpperCase(c)) {
-            case 'U': return new float[]{1, 1, 1, 1};    // Белый
-            case 'D': return new float[]{1, 1, 0, 1};    // Жёлтый
-            case 'F': return new float[]{0, 1, 0, 1};    // Зелёный
-            case 'B': return new float[]{0, 0, 1, 1};    // Синий
-            case 'L': return new float[]{1, 0.5f, 0, 1}; // Оранжевый
-            case 'R': return new float[]{1, 0, 0, 1};    // Красный
-            default:  return new float[]{1, 1, 1, 1};    // Белый по умолчанию
+
+    // То же для развёртки в кодах FaceletMoves.encode
+    public void updateFacelets(byte[] facelets) {
+        for (int i = 0; i < FaceletMoves.FACELET_COUNT; i++) {
+            if (!colorsApplied || appliedFacelets[i] != facelets[i]) {
+                setFaceletColor(i, facelets[i]);
+            }
         }
+        colorsApplied = true;
     }
+
     public void resetAllToWhite() {
-        float[] white = {1.0f, 1.0f, 1.0f, 1.0f};
         for (Cube cube : cubes) {
             for (int face = 0; face < 6; face++) {
                 if (cube.isFaceVisible(face)) {
-                    cube.setFaceColor(face, white);
+                    cube.setFaceColor(face, WHITE);
                 }
             }
         }
+        // Грани больше не совпадают с appliedFacelets, следующее обновление перекрашивает всё
+        colorsApplied = false;
     }
+    // Наклейка развёртки решателя (U 0..8, R 9..17, F 18..26, D 27..35, L 36..44, B 45..53, как в FaceletMoves),
+    // которую показывает грань face кубика (порядок граней Cube: перед, зад, лево, право, верх, низ).
+    // Каждая грань читается по строкам, как её видно снаружи; U - задним рядом вверх, D - передним.
     private int getFaceletPosition(int cubeIndex, int face) {
-        // Определяем базовый индекс для каждой грани
-        int baseIndex = 0;
+        int x = cubeIndex / 9;          // 0 слева, 2 справа
+        int y = (cubeIndex % 9) / 3;    // 0 снизу, 2 сверху
+        int z = cubeIndex % 3;          // 0 сзади, 2 спереди
+
         switch (face) {
-            case 0: baseIndex = 0; break;   // U (верх)
-            case 1: baseIndex = 27; break;  // D (низ)
-            case 2: baseIndex = 18; break;  // F (перед)
-            case 3: baseIndex = 36; break;  // B (зад)
-            case 4: baseIndex = 9; break;   // L (лево)
-            case 5: baseIndex = 45; break;  // R (право)
+            case 0: return 18 + (2 - y) * 3 + x;        // F
+            case 1: return 45 + (2 - y) * 3 + (2 - x);  // B
+            case 2: return 36 + (2 - y) * 3 + z;        // L
+            case 3: return 9 + (2 - y) * 3 + (2 - z);   // R
+            case 4: return z * 3 + x;                   // U
+            case 5: return 27 + (2 - z) * 3 + x;        // D
             default: return -1;
         }
-
-        // Определяем позицию внутри грани на основе положения кубика
-        int x = cubeIndex / 9;
-        int y = (cubeIndex % 9) / 3;
-        int z = cubeIndex % 3;
-
-        // Преобразуем 3D координаты в индекс внутри грани
-        int posInFace = 0;
-        if (face == 0 || face == 1) { // U или D
-            posInFace = z * 3 + x;
-        } else if (face == 2 || face == 3) { // F или B
-            posInFace = y * 3 + x;
-        } else { // L или R
-            posInFace = y * 3 + z;
-        }
-
-        return baseIndex + posInFace;
     }
 
 }
\ No newline at end of file
@@ -16,8 +16,14 @@ public class RubikCubeRenderer implements GLSurfaceView.Renderer {
     private final float[] projectionMatrix = new float[16];
     private final float[] viewMatrix = new float[16];
     private final float[] rotationMatrix = new float[16];
+    private final float[] viewProjectionMatrix = new float[16];
     private final Context context;
-    private String currentFacelets = "UUUUUUUUURRRRRRRRRFFFFFFFFFDDDDDDDDDLLLLLLLLLBBBBBBBBB";
+    // Текущая развёртка в кодах FaceletMoves.encode и буфер для следующего хода (массивы меняются местами)
+    private byte[] facelets = new byte[FaceletMoves.FACELET_COUNT];
+    private byte[] nextFacelets = new byte[FaceletMoves.FACELET_COUNT];
+    // Перемотка по последовательности: развёртка до первого хода и свёрнутые префиксы
+    private byte[] playbackStart;
+    private MovePlayback playback;
     private RubikCube rubikCube;
     private int shaderProgram;
 
@@ -30,6 +36,7 @@ public class RubikCubeRenderer implements GLSurfaceView.Renderer {
 
     public RubikCubeRenderer(Context context) {
         this.context = context;
+        setFacelets("UUUUUUUUURRRRRRRRRFFFFFFFFFDDDDDDDDDLLLLLLLLLBBBBBBBBB");
     }
 
     @Override
@@ -67,9 +74,10 @@ public class RubikCubeRenderer implements GLSurfaceView.Renderer {
     public void onDrawFrame(GL10 gl) {
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
-        Matrix.multiplyMM(mvpMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
+        // Один раз за кадр; multiplyMM не допускает совпадения результата с аргументом
+        Matrix.multiplyMM(viewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
         Matrix.setRotateM(rotationMatrix, 0, 20, 1, 1, 0);
-        Matrix.multiplyMM(mvpMatrix, 0, mvpMatrix, 0, rotationMatrix, 0);
+        Matrix.multiplyMM(mvpMatrix, 0, viewProjectionMatrix, 0, rotationMatrix, 0);
 
         rubikCube.draw(mvpMatrix, shaderProgram);
 
@@ -80,11 +88,26 @@ public class RubikCubeRenderer implements GLSurfaceView.Renderer {
 
     public void updateColors(String facelets) {
         if (facelets != null) {
-            currentFacelets = facelets;
+            setFacelets(facelets);
             rubikCube.updateColors(facelets);
         }
     }
 
+    private void setFacelets(String s) {
+        for (int i = 0; i < FaceletMoves.FACELET_COUNT; i++) {
+            facelets[i] = FaceletMoves.encode(i < s.length() ? s.charAt(i) : ' ');
+        }
+    }
+
+    // Текущая развёртка строкой (строится только по запросу)
+    public String getFacelets() {
+        char[] s = new char[FaceletMoves.FACELET_COUNT];
+        for (int i = 0; i < s.length; i++) {
+            s[i] = FaceletMoves.decode(facelets[i]);
+        }
+        return new String(s);
+    }
+
     public void resetToWhite() {
         rubikCube.resetAllToWhite();
     }
@@ -116,103 +139,45 @@ public class RubikCubeRenderer implements GLSurfaceView.Renderer {
     }
 
     public void applyMove(String move) {
-        if (move == null || move.isEmpty()) return;
-
-        char face = move.charAt(0);
-        boolean clockwise = !move.contains("'");
-        boolean doubleTurn = move.contains("2");
-
-        char[] cubeState = currentFacelets.toCharArray();
-
-        int rotations = doubleTurn ? 2 : 1;
-        for (int i = 0; i < rotations; i++) {
-            switch (face) {
-                case 'U': rotateUFace(cubeState, clockwise); break;
-                case 'D': rotateDFace(cubeState, clockwise); break;
-                case 'F': rotateFFace(cubeState, clockwise); break;
-                case 'B': rotateBFace(cubeState, clockwise); break;
-                case 'L': rotateLFace(cubeState, clockwise); break;
-                case 'R': rotateRFace(cubeState, clockwise); break;
-            }
+        int m = FaceletMoves.parseMove(move);
+        if (m >= 0) {
+            applyMove(m);
         }
-
-        currentFacelets = new String(cubeState);
-        updateColors(currentFacelets);
     }
 
-    // Методы вращения граней (остаются без изменений)
-    private void rotateUFace(char[] state, boolean clockwise) {
-        rotateFace(state, new int[]{0, 1, 2, 5, 8, 7, 6, 3}, clockwise);
-        rotateEdges(state, new int[]{9, 36, 27, 18}, clockwise);
+    // move - индекс 3 * ось + степень - 1. Перекрашиваются только наклейки, которые изменились.
+    public void applyMove(int move) {
+        FaceletMoves.apply(move, facelets, nextFacelets);
+        showNextFacelets();
     }
 
-    private void rotateDFace(char[] state, boolean clockwise) {
-        rotateFace(state, new int[]{45, 46, 47, 50, 53, 52, 51, 48}, clockwise);
-        rotateEdges(state, new int[]{24, 33, 42, 15}, clockwise);
+    // Вся последовательность (например, вставленная скрамбла) применяется одной перестановкой и одной перекраской
+    public void applyMoves(byte[] moves) {
+        FaceletMoves.permute(FaceletMoves.compose(moves), facelets, nextFacelets);
+        showNextFacelets();
     }
 
-    private void rotateFFace(char[] state, boolean clockwise) {
-        rotateFace(state, new int[]{18, 19, 20, 23, 26, 25, 24, 21}, clockwise);
-        rotateEdges(state, new int[]{6, 11, 47, 38}, clockwise);
+    // Запоминает текущую развёртку как шаг 0 последовательности moves для seekPlayback
+    public void startPlayback(byte[] moves) {
+        playbackStart = facelets.clone();
+        playback = new MovePlayback(moves);
     }
 
-    private void rotateBFace(char[] state, boolean clockwise) {
-        rotateFace(state, new int[]{36, 37, 38, 41, 44, 43, 42, 39}, clockwise);
-        rotateEdges(state, new int[]{2, 29, 51, 20}, clockwise);
+    // Переход к шагу step (0..длина) последовательности из startPlayback
+    public void seekPlayback(int step) {
+        if (playback == null) return;
+        FaceletMoves.permute(playback.permutation(step), playbackStart, nextFacelets);
+        showNextFacelets();
     }
 
-    private void rotateLFace(char[] state, boolean clockwise) {
-        rotateFace(state, new int[]{9, 10, 11, 14, 17, 16, 15, 12}, clockwise);
-        rotateEdges(state, new int[]{0, 18, 45, 44}, clockwise);
-    }
-
-    private void rotateRFace(char[] state, boolean clockwise) {
-        rotateFace(state, new int[]{27, 28, 29, 32, 35, 34, 33, 30}, clockwise);
-        rotateEdges(state, new int[]{8, 26, 53, 36}, clockwise);
-    }
-
-    private void rotateFace(char[] state, int[] indices, boolean clockwise) {
-        if (clockwise) {
-            char temp = state[indices[6]];
-            state[indices[6]] = state[indices[4]];
-            state[indices[4]] = state[indices[2]];
-            state[indices[2]] = state[indices[0]];
-            state[indices[0]] = temp;
-
-            temp = state[indices[7]];
-            state[indices[7]] = state[indices[5]];
-            state[indices[5]] = state[indices[3]];
-            state[indices[3]] = state[indices[1]];
-            state[indices[1]] = temp;
-        } else {
-            char temp = state[indices[0]];
-            state[indices[0]] = state[indices[2]];
-            state[indices[2]] = state[indices[4]];
-            state[indices[4]] = state[indices[6]];
-            state[indices[6]] = temp;
-
-            temp = state[indices[1]];
-            state[indices[1]] = state[indices[3]];
-            state[indices[3]] = state[indices[5]];
-            state[indices[5]] = state[indices[7]];
-            state[indices[7]] = temp;
-        }
-    }
-
-    private void rotateEdges(char[] state, int[] indices, boolean clockwise) {
-        if (clockwise) {
-            char temp = state[indices[3]];
-            state[indices[3]] = state[indices[2]];
-            state[indices[2]] = state[indices[1]];
-            state[indices[1]] = state[indices[0]];
-            state[indices[0]] = temp;
-        } else {
-            char temp = state[indices[0]];
-            state[indices[0]] = state[indices[1]];
-            state[indices[1]] = state[indices[2]];
-            state[indices[2]] = state[indices[3]];
-            state[indices[3]] = temp;
+    // Делает nextFacelets текущей развёрткой
+    private void showNextFacelets() {
+        if (rubikCube != null) {
+            rubikCube.updateFacelets(nextFacelets);
         }
+        byte[] t = facelets;
+        facelets = nextFacelets;
+        nextFacelets = t;
     }
 
     private int createShaderProgram() {
@@ -0,0 +1,98 @@
+// Solver benchmark: solves a fixed set of random cubes in first-solution mode and reports solves/s and search nodes/s.
+// Built by the CUBE_SOLVER_BENCHMARK option of CMakeLists.txt, once with the packed phase 2 tables (solver-bench) and
+// once with the row-major move tables (solver-bench-rowmajor), so both layouts can be compared on the same device:
+//
+//   adb push solver-bench solver-bench-rowmajor /data/local/tmp
+//   adb shell /data/local/tmp/solver-bench /data/local/tmp [cubes] [maxDepth]
+//
+// The first run generates the tables in the given directory, later runs only map them.
+#include <stdio.h>
+#include <stdlib.h>
+#include <time.h>
+#include "search.h"
+
+#define DEFAULT_CUBES     1000
+#define DEFAULT_MAX_DEPTH 21
+
+static unsigned long long seed = 0x2545f4914f6cdd1dULL;
+
+// xorshift64*, so every platform gets the same cubes
+static unsigned int next_random(unsigned int bound)
+{
+    seed ^= seed >> 12;
+    seed ^= seed << 25;
+    seed ^= seed >> 27;
+    return (unsigned int) ((seed * 0x2545f4914f6cdd1dULL) >> 32) % bound;
+}
+
+static void random_cube(cubiecube_t* cc)
+{
+    do {
+        setURFtoDLB(cc, (int) next_random(N_URFtoDLB));
+        setURtoBR(cc, (int) next_random(N_URtoBR));
+    } while (cornerParity(cc) != edgeParity(cc));
+    setTwist(cc, (short) next_random(N_TWIST));
+    setFlip(cc, (short) next_random(N_FLIP));
+}
+
+static double now_seconds(void)
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (double) ts.tv_sec + ts.tv_nsec / 1e9;
+}
+
+int main(int argc, char** argv)
+{
+    const char* cache_dir = argc > 1 ? argv[1] : ".";
+    int cubes = argc > 2 ? atoi(argv[2]) : DEFAULT_CUBES;
+    int maxDepth = argc > 3 ? atoi(argv[3]) : DEFAULT_MAX_DEPTH;
+    solve_options_t options = { maxDepth, 1000000, NULL, 0, NULL, NULL, NULL };
+    solve_workspace_t* ws = (solve_workspace_t*) malloc(sizeof(solve_workspace_t));
+    cubiecube_t* solved = get_cubiecube();
+    cubiecube_t cc = *solved;
+    signed char moves[SOLVE_MAX_MOVES];
+    unsigned long nodesPhase1 = 0, nodesPhase2 = 0;
+    long totalLength = 0;
+    int i, length, solved_count = 0;
+    double start, elapsed;
+
+    free(solved);
+    if (ws == NULL)
+        return 1;
+
+    start = now_seconds();
+    if (get_tables(cache_dir) == NULL) {
+        fprintf(stderr, "cannot load the tables in %s\n", cache_dir);
+        free(ws);
+        return 1;
+    }
+    printf("tables: %.2f s\n", now_seconds() - start);
+
+    start = now_seconds();
+    for (i = 0; i < cubes; i++) {
+        random_cube(&cc);
+        if (solve_cubie_in(ws, &cc, &options, cache_dir, moves, &length) == SOLVE_OK) {
+            solved_count++;
+            totalLength += length;
+        }
+        nodesPhase1 += ws->search.nodesPhase1;
+        nodesPhase2 += ws->search.nodesPhase2;
+    }
+    elapsed = now_seconds() - start;
+
+    printf("layout: %s\n",
+#ifdef PACKED_PHASE2_TABLES
+           "packed phase 2"
+#else
+           "row-major"
+#endif
+    );
+    printf("cubes: %d, solved: %d, average length: %.2f\n", cubes, solved_count,
+           solved_count ? (double) totalLength / solved_count : 0.0);
+    printf("time: %.3f s, %.1f solves/s\n", elapsed, cubes / elapsed);
+    printf("phase 1 nodes: %lu (%.2f M/s), phase 2 nodes: %lu (%.2f M/s)\n",
+           nodesPhase1, nodesPhase1 / elapsed / 1e6, nodesPhase2, nodesPhase2 / elapsed / 1e6);
+    free(ws);
+    return 0;
+}
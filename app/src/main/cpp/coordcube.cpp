@@ -1,49 +1,113 @@
 #include <sys/types.h>
 #include <stdio.h>
-#include "prunetable_helpers.h"
+#include <stdlib.h>
+#include <string.h>
+#include <mutex>
+#include "parallel.h"
+#include "tablestore.h"
 #include "coordcube.h"
 #include "cubiecube.h"
+#include "symmetry.h"
 
-short twistMove[N_TWIST][N_MOVE];
-short flipMove[N_FLIP][N_MOVE];
-short parityMove[2][18] = {
+static const short parityMove[2][N_MOVE] = {
         { 1, 0, 1, 1, 0, 1, 1, 0, 1, 1, 0, 1, 1, 0, 1, 1, 0, 1 },
         { 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0 }
 };
-short FRtoBR_Move[N_FRtoBR][N_MOVE];
-short URFtoDLF_Move[N_URFtoDLF][N_MOVE] = {{0}};
-short URtoDF_Move[N_URtoDF][N_MOVE] = {{0}};
-short URtoUL_Move[N_URtoUL][N_MOVE] = {{0}};
-short UBtoDF_Move[N_UBtoDF][N_MOVE] = {{0}};
-short MergeURtoULandUBtoDF[336][336] = {{0}};
-signed char Slice_URFtoDLF_Parity_Prun[N_SLICE2 * N_URFtoDLF * N_PARITY / 2] = {0};
-signed char Slice_URtoDF_Parity_Prun[N_SLICE2 * N_URtoDF * N_PARITY / 2] = {0};
-signed char Slice_Twist_Prun[N_SLICE1 * N_TWIST / 2 + 1] = {0};
-signed char Slice_Flip_Prun[N_SLICE1 * N_FLIP / 2] = {0};
-
-int PRUNING_INITED = 0;
-
-void move(coordcube_t* coordcube, int m, const char *cache_dir)
-{
-    if (PRUNING_INITED == 0) {
-        initPruning(cache_dir);
-    }
-    coordcube->twist = twistMove[coordcube->twist][m];
-    coordcube->flip = flipMove[coordcube->flip][m];
-    coordcube->parity = parityMove[coordcube->parity][m];
-    coordcube->FRtoBR = FRtoBR_Move[coordcube->FRtoBR][m];
-    coordcube->URFtoDLF = URFtoDLF_Move[coordcube->URFtoDLF][m];
-    coordcube->URtoUL = URtoUL_Move[coordcube->URtoUL][m];
-    coordcube->UBtoDF = UBtoDF_Move[coordcube->UBtoDF][m];
+
+const signed char phase2MoveIndex[N_MOVE] = { 0, 1, 2, -1, 3, -1, -1, 4, -1, 5, 6, 7, -1, 8, -1, -1, 9, -1 };
+
+// Tables in the order they are stored in the table store. Pruning tables are built from the move and symmetry tables,
+// so those come first.
+enum {
+    TWIST_MOVE,
+    FLIP_MOVE,
+    FRtoBR_MOVE,
+    URFtoDLF_MOVE,
+    URtoDF_MOVE,
+    URtoUL_MOVE,
+    UBtoDF_MOVE,
+    MERGE_URtoUL_UBtoDF,
+#ifdef PACKED_PHASE2_TABLES
+    PHASE2_MOVES,
+#endif
+    FLIPSLICE_SYM,
+    TWIST_CONJ,
+    SLICE_URFtoDLF_PARITY_PRUN,
+    SLICE_URtoDF_PARITY_PRUN,
+    FLIPSLICE_TWIST_PRUN,
+    TABLE_COUNT
+};
+
+static table_entry_t tables[TABLE_COUNT] = {
+        { "twistMove",                  sizeof(short) * N_TWIST * N_MOVE,                   NULL },
+        { "flipMove",                   sizeof(short) * N_FLIP * N_MOVE,                    NULL },
+        { "FRtoBR_Move",                sizeof(short) * N_FRtoBR * N_MOVE,                  NULL },
+        { "URFtoDLF_Move",              sizeof(short) * N_URFtoDLF * N_MOVE,                NULL },
+        { "URtoDF_Move",                sizeof(short) * N_URtoDF * N_MOVE,                  NULL },
+        { "URtoUL_Move",                sizeof(short) * N_URtoUL * N_MOVE,                  NULL },
+        { "UBtoDF_Move",                sizeof(short) * N_UBtoDF * N_MOVE,                  NULL },
+        { "MergeURtoULandUBtoDF",       sizeof(short) * 336 * 336,                          NULL },
+#ifdef PACKED_PHASE2_TABLES
+        { "Phase2_Moves",               sizeof(phase2_moves_t),                             NULL },
+#endif
+        { "FlipSlice_Sym",              sizeof(flipslice_sym_t),                            NULL },
+        { "TwistConj",                  sizeof(unsigned short) * N_TWIST * N_SYM_D4h,       NULL },
+        { "Slice_URFtoDLF_Parity_Prun", N_SLICE2 * N_URFtoDLF * N_PARITY / 2,               NULL },
+        { "Slice_URtoDF_Parity_Prun",   N_SLICE2 * N_URtoDF * N_PARITY / 2,                 NULL },
+        { "FlipSlice_Twist_Prun",       ((size_t) N_FLIPSLICE_CLASS * N_TWIST + 3) / 4,     NULL },
+};
+
+// The table context and the mapping of the table store file it points into. Both are written once, by the
+// initialization under context_once, and are read-only afterwards.
+static coordtables_t context;
+static tablestore_t store;
+static std::once_flag context_once;
+
+// Point the table context at the data of the table entries
+static void bind_tables(void)
+{
+    context.twistMove = (const short (*)[N_MOVE]) tables[TWIST_MOVE].data;
+    context.flipMove = (const short (*)[N_MOVE]) tables[FLIP_MOVE].data;
+    context.parityMove = parityMove;
+    context.FRtoBR_Move = (const short (*)[N_MOVE]) tables[FRtoBR_MOVE].data;
+    context.URFtoDLF_Move = (const short (*)[N_MOVE]) tables[URFtoDLF_MOVE].data;
+    context.URtoDF_Move = (const short (*)[N_MOVE]) tables[URtoDF_MOVE].data;
+    context.URtoUL_Move = (const short (*)[N_MOVE]) tables[URtoUL_MOVE].data;
+    context.UBtoDF_Move = (const short (*)[N_MOVE]) tables[UBtoDF_MOVE].data;
+    context.MergeURtoULandUBtoDF = (const short (*)[336]) tables[MERGE_URtoUL_UBtoDF].data;
+    context.Slice_URFtoDLF_Parity_Prun = (const signed char*) tables[SLICE_URFtoDLF_PARITY_PRUN].data;
+    context.Slice_URtoDF_Parity_Prun = (const signed char*) tables[SLICE_URtoDF_PARITY_PRUN].data;
+#ifdef PACKED_PHASE2_TABLES
+    context.phase2Moves = (const phase2_moves_t*) tables[PHASE2_MOVES].data;
+#endif
+    context.flipsliceSym = (const flipslice_sym_t*) tables[FLIPSLICE_SYM].data;
+    context.twistConj = (const unsigned short (*)[N_SYM_D4h]) tables[TWIST_CONJ].data;
+    context.FlipSlice_Twist_Prun = (const unsigned char*) tables[FLIPSLICE_TWIST_PRUN].data;
+}
+
+void move(coordcube_t* coordcube, int m, const coordtables_t* t)
+{
+    coordcube->twist = t->twistMove[coordcube->twist][m];
+    coordcube->flip = t->flipMove[coordcube->flip][m];
+    coordcube->parity = t->parityMove[coordcube->parity][m];
+    coordcube->FRtoBR = t->FRtoBR_Move[coordcube->FRtoBR][m];
+    coordcube->URFtoDLF = t->URFtoDLF_Move[coordcube->URFtoDLF][m];
+    coordcube->URtoUL = t->URtoUL_Move[coordcube->URtoUL][m];
+    coordcube->UBtoDF = t->UBtoDF_Move[coordcube->UBtoDF][m];
     if (coordcube->URtoUL < 336 && coordcube->UBtoDF < 336)// updated only if UR,UF,UL,UB,DR,DF
         // are not in UD-slice
-        coordcube->URtoDF = MergeURtoULandUBtoDF[coordcube->URtoUL][coordcube->UBtoDF];
+        coordcube->URtoDF = t->MergeURtoULandUBtoDF[coordcube->URtoUL][coordcube->UBtoDF];
 }
 
 coordcube_t* get_coordcube(cubiecube_t* cubiecube)
 {
     coordcube_t* result = (coordcube_t *) calloc(1, sizeof(coordcube_t));
+    set_coordcube(result, cubiecube);
+    return result;
+}
 
+void set_coordcube(coordcube_t* result, cubiecube_t* cubiecube)
+{
     result->twist       = getTwist(cubiecube);
     result->flip        = getFlip(cubiecube);
     result->parity      = cornerParity(cubiecube);
@@ -52,298 +116,602 @@ coordcube_t* get_coordcube(cubiecube_t* cubiecube)
     result->URtoUL      = getURtoUL(cubiecube);
     result->UBtoDF      = getUBtoDF(cubiecube);
     result->URtoDF      = getURtoDF(cubiecube);// only needed in phase2
-
-    return result;
 }
 
-void initPruning(const char *cache_dir)
+static void init_twistMove(void)
 {
+    short (*twistMove)[N_MOVE] = (short (*)[N_MOVE]) tables[TWIST_MOVE].data;
     cubiecube_t* a;
-    cubiecube_t* moveCube = get_moveCube();
-
-    if(check_cached_table("twistMove", (void*) twistMove, sizeof(twistMove), cache_dir) != 0) {
-        short i;
-        int k, j;
-        a = get_cubiecube();
-        for (i = 0; i < N_TWIST; i++) {
-            setTwist(a, i);
-            for (j = 0; j < 6; j++) {
-                for (k = 0; k < 3; k++) {
-                    cornerMultiply(a, &moveCube[j]);
-                    twistMove[i][3 * j + k] = getTwist(a);
-                }
-                cornerMultiply(a, &moveCube[j]);// 4. faceturn restores
+    const cubiecube_t* moveCube = get_moveCube();
+    short i;
+    int k, j;
+    a = get_cubiecube();
+    for (i = 0; i < N_TWIST; i++) {
+        setTwist(a, i);
+        for (j = 0; j < 6; j++) {
+            for (k = 0; k < 3; k++) {
+                cornerMultiply(a, &moveCube[j]);
+                twistMove[i][3 * j + k] = getTwist(a);
             }
+            cornerMultiply(a, &moveCube[j]);// 4. faceturn restores
         }
-        free(a);
-        dump_to_file((void*) twistMove, sizeof(twistMove), "twistMove", cache_dir);
     }
+    free(a);
+}
 
-    if(check_cached_table("flipMove", (void*) flipMove, sizeof(flipMove), cache_dir) != 0) {
-        short i;
-        int k, j;
-        a = get_cubiecube();
-        for (i = 0; i < N_FLIP; i++) {
-            setFlip(a, i);
-            for (j = 0; j < 6; j++) {
-                for (k = 0; k < 3; k++) {
-                    edgeMultiply(a, &moveCube[j]);
-                    flipMove[i][3 * j + k] = getFlip(a);
-                }
+static void init_flipMove(void)
+{
+    short (*flipMove)[N_MOVE] = (short (*)[N_MOVE]) tables[FLIP_MOVE].data;
+    cubiecube_t* a;
+    const cubiecube_t* moveCube = get_moveCube();
+    short i;
+    int k, j;
+    a = get_cubiecube();
+    for (i = 0; i < N_FLIP; i++) {
+        setFlip(a, i);
+        for (j = 0; j < 6; j++) {
+            for (k = 0; k < 3; k++) {
                 edgeMultiply(a, &moveCube[j]);
+                flipMove[i][3 * j + k] = getFlip(a);
             }
+            edgeMultiply(a, &moveCube[j]);
         }
-        free(a);
-        dump_to_file((void*) flipMove, sizeof(flipMove), "flipMove", cache_dir);
     }
+    free(a);
+}
 
-    if(check_cached_table("FRtoBR_Move", (void*) FRtoBR_Move, sizeof(FRtoBR_Move), cache_dir) != 0) {
-        short i;
-        int k, j;
-        a = get_cubiecube();
-        for (i = 0; i < N_FRtoBR; i++) {
-            setFRtoBR(a, i);
-            for (j = 0; j < 6; j++) {
-                for (k = 0; k < 3; k++) {
-                    edgeMultiply(a, &moveCube[j]);
-                    FRtoBR_Move[i][3 * j + k] = getFRtoBR(a);
-                }
+static void init_FRtoBR_Move(void)
+{
+    short (*FRtoBR_Move)[N_MOVE] = (short (*)[N_MOVE]) tables[FRtoBR_MOVE].data;
+    cubiecube_t* a;
+    const cubiecube_t* moveCube = get_moveCube();
+    short i;
+    int k, j;
+    a = get_cubiecube();
+    for (i = 0; i < N_FRtoBR; i++) {
+        setFRtoBR(a, i);
+        for (j = 0; j < 6; j++) {
+            for (k = 0; k < 3; k++) {
                 edgeMultiply(a, &moveCube[j]);
+                FRtoBR_Move[i][3 * j + k] = getFRtoBR(a);
             }
+            edgeMultiply(a, &moveCube[j]);
         }
-        free(a);
-        dump_to_file((void*) FRtoBR_Move, sizeof(FRtoBR_Move), "FRtoBR_Move", cache_dir);
     }
+    free(a);
+}
 
-    if(check_cached_table("URFtoDLF_Move", (void*) URFtoDLF_Move, sizeof(URFtoDLF_Move), cache_dir) != 0) {
-        short i;
-        int k, j;
-        a = get_cubiecube();
-        for (i = 0; i < N_URFtoDLF; i++) {
-            setURFtoDLF(a, i);
-            for (j = 0; j < 6; j++) {
-                for (k = 0; k < 3; k++) {
-                    cornerMultiply(a, &moveCube[j]);
-                    URFtoDLF_Move[i][3 * j + k] = getURFtoDLF(a);
-                }
+static void init_URFtoDLF_Move(void)
+{
+    short (*URFtoDLF_Move)[N_MOVE] = (short (*)[N_MOVE]) tables[URFtoDLF_MOVE].data;
+    cubiecube_t* a;
+    const cubiecube_t* moveCube = get_moveCube();
+    short i;
+    int k, j;
+    a = get_cubiecube();
+    for (i = 0; i < N_URFtoDLF; i++) {
+        setURFtoDLF(a, i);
+        for (j = 0; j < 6; j++) {
+            for (k = 0; k < 3; k++) {
                 cornerMultiply(a, &moveCube[j]);
+                URFtoDLF_Move[i][3 * j + k] = getURFtoDLF(a);
             }
+            cornerMultiply(a, &moveCube[j]);
         }
-        free(a);
-        dump_to_file((void*) URFtoDLF_Move, sizeof(URFtoDLF_Move), "URFtoDLF_Move", cache_dir);
     }
+    free(a);
+}
 
-    if(check_cached_table("URtoDF_Move", (void*) URtoDF_Move, sizeof(URtoDF_Move), cache_dir) != 0) {
-        short i;
-        int k, j;
-        a = get_cubiecube();
-        for (i = 0; i < N_URtoDF; i++) {
-            setURtoDF(a, i);
-            for (j = 0; j < 6; j++) {
-                for (k = 0; k < 3; k++) {
-                    edgeMultiply(a, &moveCube[j]);
-                    URtoDF_Move[i][3 * j + k] = (short) getURtoDF(a);
-                    // Table values are only valid for phase 2 moves!
-                    // For phase 1 moves, casting to short is not possible.
-                }
+static void init_URtoDF_Move(void)
+{
+    short (*URtoDF_Move)[N_MOVE] = (short (*)[N_MOVE]) tables[URtoDF_MOVE].data;
+    cubiecube_t* a;
+    const cubiecube_t* moveCube = get_moveCube();
+    short i;
+    int k, j;
+    a = get_cubiecube();
+    for (i = 0; i < N_URtoDF; i++) {
+        setURtoDF(a, i);
+        for (j = 0; j < 6; j++) {
+            for (k = 0; k < 3; k++) {
                 edgeMultiply(a, &moveCube[j]);
+                URtoDF_Move[i][3 * j + k] = (short) getURtoDF(a);
+                // Table values are only valid for phase 2 moves!
+                // For phase 1 moves, casting to short is not possible.
             }
+            edgeMultiply(a, &moveCube[j]);
         }
-        free(a);
-        dump_to_file((void*) URtoDF_Move, sizeof(URtoDF_Move), "URtoDF_Move", cache_dir);
     }
+    free(a);
+}
 
-    if(check_cached_table("URtoUL_Move", (void*) URtoUL_Move, sizeof(URtoUL_Move), cache_dir) != 0) {
-        short i;
-        int k, j;
-        a = get_cubiecube();
-        for (i = 0; i < N_URtoUL; i++) {
-            setURtoUL(a, i);
-            for (j = 0; j < 6; j++) {
-                for (k = 0; k < 3; k++) {
-                    edgeMultiply(a, &moveCube[j]);
-                    URtoUL_Move[i][3 * j + k] = getURtoUL(a);
-                }
+static void init_URtoUL_Move(void)
+{
+    short (*URtoUL_Move)[N_MOVE] = (short (*)[N_MOVE]) tables[URtoUL_MOVE].data;
+    cubiecube_t* a;
+    const cubiecube_t* moveCube = get_moveCube();
+    short i;
+    int k, j;
+    a = get_cubiecube();
+    for (i = 0; i < N_URtoUL; i++) {
+        setURtoUL(a, i);
+        for (j = 0; j < 6; j++) {
+            for (k = 0; k < 3; k++) {
                 edgeMultiply(a, &moveCube[j]);
+                URtoUL_Move[i][3 * j + k] = getURtoUL(a);
             }
+            edgeMultiply(a, &moveCube[j]);
         }
-        free(a);
-        dump_to_file((void*) URtoUL_Move, sizeof(URtoUL_Move), "URtoUL_Move", cache_dir);
     }
+    free(a);
+}
 
-    if(check_cached_table("UBtoDF_Move", (void*) UBtoDF_Move, sizeof(UBtoDF_Move), cache_dir) != 0) {
-        short i;
-        int k, j;
-        a = get_cubiecube();
-        for (i = 0; i < N_UBtoDF; i++) {
-            setUBtoDF(a, i);
-            for (j = 0; j < 6; j++) {
-                for (k = 0; k < 3; k++) {
-                    edgeMultiply(a, &moveCube[j]);
-                    UBtoDF_Move[i][3 * j + k] = getUBtoDF(a);
-                }
+static void init_UBtoDF_Move(void)
+{
+    short (*UBtoDF_Move)[N_MOVE] = (short (*)[N_MOVE]) tables[UBtoDF_MOVE].data;
+    cubiecube_t* a;
+    const cubiecube_t* moveCube = get_moveCube();
+    short i;
+    int k, j;
+    a = get_cubiecube();
+    for (i = 0; i < N_UBtoDF; i++) {
+        setUBtoDF(a, i);
+        for (j = 0; j < 6; j++) {
+            for (k = 0; k < 3; k++) {
                 edgeMultiply(a, &moveCube[j]);
+                UBtoDF_Move[i][3 * j + k] = getUBtoDF(a);
             }
+            edgeMultiply(a, &moveCube[j]);
         }
-        free(a);
-        dump_to_file((void*) UBtoDF_Move, sizeof(UBtoDF_Move), "UBtoDF_Move", cache_dir);
     }
+    free(a);
+}
 
-    if(check_cached_table("MergeURtoULandUBtoDF", (void*) MergeURtoULandUBtoDF, sizeof(MergeURtoULandUBtoDF), cache_dir) != 0) {
-        // for i, j <336 the six edges UR,UF,UL,UB,DR,DF are not in the
-        // UD-slice and the index is <20160
-        short uRtoUL, uBtoDF;
-        for (uRtoUL = 0; uRtoUL < 336; uRtoUL++) {
-            for (uBtoDF = 0; uBtoDF < 336; uBtoDF++) {
-                MergeURtoULandUBtoDF[uRtoUL][uBtoDF] = (short) getURtoDF_standalone(uRtoUL, uBtoDF);
-            }
+static void init_MergeURtoULandUBtoDF(void)
+{
+    short (*MergeURtoULandUBtoDF)[336] = (short (*)[336]) tables[MERGE_URtoUL_UBtoDF].data;
+    // for i, j <336 the six edges UR,UF,UL,UB,DR,DF are not in the
+    // UD-slice and the index is <20160
+    short uRtoUL, uBtoDF;
+    for (uRtoUL = 0; uRtoUL < 336; uRtoUL++) {
+        for (uBtoDF = 0; uBtoDF < 336; uBtoDF++) {
+            MergeURtoULandUBtoDF[uRtoUL][uBtoDF] = (short) getURtoDF_standalone(uRtoUL, uBtoDF);
         }
-        dump_to_file((void*) MergeURtoULandUBtoDF, sizeof(MergeURtoULandUBtoDF), "MergeURtoULandUBtoDF", cache_dir);
     }
+}
 
-    if(check_cached_table("Slice_URFtoDLF_Parity_Prun", (void*) Slice_URFtoDLF_Parity_Prun, sizeof(Slice_URFtoDLF_Parity_Prun), cache_dir) != 0) {
-        int depth = 0, done = 1;
-        int i, j;
-        for (i = 0; i < N_SLICE2 * N_URFtoDLF * N_PARITY / 2; i++)
-            Slice_URFtoDLF_Parity_Prun[i] = -1;
-        setPruning(Slice_URFtoDLF_Parity_Prun, 0, 0);
-        printf("1\n");
-        while (done != N_SLICE2 * N_URFtoDLF * N_PARITY) {
-            // printf("%d %d %d\n", done, N_SLICE2 * N_URFtoDLF * N_PARITY, depth);
-            for (i = 0; i < N_SLICE2 * N_URFtoDLF * N_PARITY; i++) {
-                int parity = i % 2;
-                int URFtoDLF = (i / 2) / N_SLICE2;
-                int slice = (i / 2) % N_SLICE2;
-                if (getPruning(Slice_URFtoDLF_Parity_Prun, i) == depth) {
-                    for (j = 0; j < 18; j++) {
-                        int newSlice;
-                        int newURFtoDLF;
-                        int newParity;
-                        switch (j) {
-                            case 3:
-                            case 5:
-                            case 6:
-                            case 8:
-                            case 12:
-                            case 14:
-                            case 15:
-                            case 17:
-                                continue;
-                            default:
-                                newSlice = FRtoBR_Move[slice][j];
-                                newURFtoDLF = URFtoDLF_Move[URFtoDLF][j];
-                                newParity = parityMove[parity][j];
-                                if (getPruning(Slice_URFtoDLF_Parity_Prun, (N_SLICE2 * newURFtoDLF + newSlice) * 2 + newParity) == 0x0f) {
-                                    setPruning(Slice_URFtoDLF_Parity_Prun, (N_SLICE2 * newURFtoDLF + newSlice) * 2 + newParity,
-                                               (signed char) (depth + 1));
-                                    done++;
-                                }
-                        }
-                    }
+// ***********************************Parallel generation of the pruning tables*************************************
+
+// Pruning tables are filled by a breadth-first search, one depth level per sweep over the table. Each sweep is split
+// across the worker threads. Two entries share a byte, so entries are claimed with an atomic AND on that byte.
+// The search runs forward (expand all entries of the current depth) while the table is mostly empty and backward
+// (look for an already reached neighbour of every empty entry) once more than half of the entries are filled, which
+// touches far fewer entries at the deep levels.
+
+// Entries per block handed to a worker. Even, so two workers never own the two halves of one byte in a backward sweep.
+#define PRUNE_BLOCK 4096
+
+typedef struct {
+    signed char* table;
+    int size;                           // number of entries
+    int (*next)(int index, int move);   // entry reached by a move, or -1 if the move is not used for this table
+    signed char depth;
+    int backward;
+    int done;                           // entries filled during the sweep
+} prune_sweep_t;
+
+static signed char loadPruning(signed char* table, int index)
+{
+    signed char b = __atomic_load_n(&table[index / 2], __ATOMIC_RELAXED);
+    return (index & 1) == 0 ? (b & 0x0f) : ((b >> 4) & 0x0f);
+}
+
+// Set an empty entry to value. Returns 1 if this call filled the entry, 0 if another worker got there first.
+static int claimPruning(signed char* table, int index, signed char value)
+{
+    signed char old;
+    if ((index & 1) == 0)
+        old = __atomic_fetch_and(&table[index / 2], (signed char) (0xf0 | value), __ATOMIC_RELAXED) & 0x0f;
+    else
+        old = (__atomic_fetch_and(&table[index / 2], (signed char) (0x0f | (value << 4)), __ATOMIC_RELAXED) >> 4) & 0x0f;
+    return old == 0x0f;
+}
+
+static void prune_sweep(long begin, long end, void* arg)
+{
+    prune_sweep_t* p = (prune_sweep_t*) arg;
+    int i, j, k, found = 0;
+    for (i = (int) begin; i < (int) end; i++) {
+        if (p->backward) {
+            if (loadPruning(p->table, i) != 0x0f)
+                continue;
+            for (j = 0; j < N_MOVE; j++) {
+                if ((k = p->next(i, j)) >= 0 && loadPruning(p->table, k) == p->depth) {
+                    found += claimPruning(p->table, i, (signed char) (p->depth + 1));
+                    break;
                 }
             }
-            depth++;
+        } else {
+            if (loadPruning(p->table, i) != p->depth)
+                continue;
+            for (j = 0; j < N_MOVE; j++) {
+                // only empty entries are claimed, other workers can only have set them to depth + 1 as well
+                if ((k = p->next(i, j)) >= 0 && loadPruning(p->table, k) == 0x0f)
+                    found += claimPruning(p->table, k, (signed char) (p->depth + 1));
+            }
         }
-        printf("2\n");
-        dump_to_file((void*) Slice_URFtoDLF_Parity_Prun, sizeof(Slice_URFtoDLF_Parity_Prun), "Slice_URFtoDLF_Parity_Prun", cache_dir);
-        printf("3\n");
     }
+    __atomic_fetch_add(&p->done, found, __ATOMIC_RELAXED);
+}
+
+static void fill_pruning(signed char* table, size_t table_size, int entries, int (*next)(int index, int move))
+{
+    prune_sweep_t sweep;
+    int done = 1;
+    memset(table, -1, table_size);
+    setPruning(table, 0, 0);
+
+    sweep.table = table;
+    sweep.size = entries;
+    sweep.next = next;
+    sweep.depth = 0;
+    while (done != entries) {
+        sweep.backward = done > entries / 2;
+        sweep.done = 0;
+        parallel_for(entries, PRUNE_BLOCK, prune_sweep, &sweep);
+        done += sweep.done;
+        sweep.depth++;
+    }
+}
+
+// Phase 2 tables only use the moves U, U2, U', D, D2, D', R2, F2, L2 and B2
+static int phase2_move(int move)
+{
+    switch (move) {
+        case 3:
+        case 5:
+        case 6:
+        case 8:
+        case 12:
+        case 14:
+        case 15:
+        case 17:
+            return 0;
+        default:
+            return 1;
+    }
+}
+
+static int next_Slice_URFtoDLF_Parity(int i, int j)
+{
+    int parity = i % 2;
+    int URFtoDLF = (i / 2) / N_SLICE2;
+    int slice = (i / 2) % N_SLICE2;
+    if (!phase2_move(j))
+        return -1;
+    return (N_SLICE2 * context.URFtoDLF_Move[URFtoDLF][j] + context.FRtoBR_Move[slice][j]) * 2
+           + context.parityMove[parity][j];
+}
 
-    if(check_cached_table("Slice_URtoDF_Parity_Prun", (void*) Slice_URtoDF_Parity_Prun, sizeof(Slice_URtoDF_Parity_Prun), cache_dir) != 0) {
-        int depth = 0, done = 1;
-        int i, j;
-        for (i = 0; i < N_SLICE2 * N_URtoDF * N_PARITY / 2; i++)
-            Slice_URtoDF_Parity_Prun[i] = -1;
-        setPruning(Slice_URtoDF_Parity_Prun, 0, 0);
-        while (done != N_SLICE2 * N_URtoDF * N_PARITY) {
-            for (i = 0; i < N_SLICE2 * N_URtoDF * N_PARITY; i++) {
-                int parity = i % 2;
-                int URtoDF = (i / 2) / N_SLICE2;
-                int slice = (i / 2) % N_SLICE2;
-                if (getPruning(Slice_URtoDF_Parity_Prun, i) == depth) {
-                    for (j = 0; j < 18; j++) {
-                        int newSlice;
-                        int newURtoDF;
-                        int newParity;
-                        switch (j) {
-                            case 3:
-                            case 5:
-                            case 6:
-                            case 8:
-                            case 12:
-                            case 14:
-                            case 15:
-                            case 17:
-                                continue;
-                            default:
-                                newSlice = FRtoBR_Move[slice][j];
-                                newURtoDF = URtoDF_Move[URtoDF][j];
-                                newParity = parityMove[parity][j];
-                                if (getPruning(Slice_URtoDF_Parity_Prun, (N_SLICE2 * newURtoDF + newSlice) * 2 + newParity) == 0x0f) {
-                                    setPruning(Slice_URtoDF_Parity_Prun, (N_SLICE2 * newURtoDF + newSlice) * 2 + newParity,
-                                               (signed char) (depth + 1));
-                                    done++;
-                                }
-                        }
-                    }
+static int next_Slice_URtoDF_Parity(int i, int j)
+{
+    int parity = i % 2;
+    int URtoDF = (i / 2) / N_SLICE2;
+    int slice = (i / 2) % N_SLICE2;
+    if (!phase2_move(j))
+        return -1;
+    return (N_SLICE2 * context.URtoDF_Move[URtoDF][j] + context.FRtoBR_Move[slice][j]) * 2
+           + context.parityMove[parity][j];
+}
+
+static void init_Slice_URFtoDLF_Parity_Prun(void)
+{
+    fill_pruning((signed char*) tables[SLICE_URFtoDLF_PARITY_PRUN].data, tables[SLICE_URFtoDLF_PARITY_PRUN].size,
+                 N_SLICE2 * N_URFtoDLF * N_PARITY, next_Slice_URFtoDLF_Parity);
+}
+
+static void init_Slice_URtoDF_Parity_Prun(void)
+{
+    fill_pruning((signed char*) tables[SLICE_URtoDF_PARITY_PRUN].data, tables[SLICE_URtoDF_PARITY_PRUN].size,
+                 N_SLICE2 * N_URtoDF * N_PARITY, next_Slice_URtoDF_Parity);
+}
+
+#ifdef PACKED_PHASE2_TABLES
+// Only the packed layout reads this table, the default build does not generate or store it
+static void init_Phase2_Moves(void)
+{
+    phase2_moves_t* p = (phase2_moves_t*) tables[PHASE2_MOVES].data;
+    int i, m, k;
+    for (m = 0; m < N_MOVE; m++) {
+        if ((k = phase2MoveIndex[m]) < 0)
+            continue;
+        for (i = 0; i < N_URFtoDLF; i++)
+            p->URFtoDLF[i].next[k] = (unsigned short) context.URFtoDLF_Move[i][m];
+        for (i = 0; i < N_URtoDF; i++)
+            p->URtoDF[i].next[k] = (unsigned short) context.URtoDF_Move[i][m];
+        for (i = 0; i < N_SLICE2 * N_PARITY; i++)
+            p->sliceParity[i].next[k] = (unsigned short) (2 * context.FRtoBR_Move[i / 2][m]
+                                                          + context.parityMove[i % 2][m]);
+    }
+}
+#endif
+
+static void init_FlipSlice_Sym(void)
+{
+    init_flipslice_sym((flipslice_sym_t*) tables[FLIPSLICE_SYM].data);
+}
+
+static void init_TwistConj(void)
+{
+    init_twistConj((unsigned short (*)[N_SYM_D4h]) tables[TWIST_CONJ].data);
+}
+
+// ******************************Symmetry reduced phase 1 pruning table*****************************************
+
+// The phase 1 table keeps 4 entries per byte and stores the distance modulo 3, with 3 marking an empty entry. It is
+// filled by the same kind of breadth-first search as the tables above. A forward sweep for depth d expands every entry
+// with the value d mod 3; entries with that value at depth d - 3 are expanded again, but all their neighbours are
+// filled already. In a backward sweep an empty entry with a neighbour of value d mod 3 has that neighbour at depth d,
+// because a neighbour at depth d - 3 would have filled it earlier. Whenever an entry is filled, the entries of the
+// same class that are symmetric to it get the same value.
+
+#define N_FLIPSLICE_TWIST ((long) N_FLIPSLICE_CLASS * N_TWIST)
+
+// Entries per block handed to a worker, a few whole classes
+#define PHASE1_BLOCK (16 * N_TWIST)
+
+typedef struct {
+    unsigned char* table;
+    const unsigned short* selfSym;      // symmetries that map the representant of a class onto itself
+    int depth;
+    int backward;
+    long done;                          // entries filled during the sweep
+} phase1_sweep_t;
+
+static int loadDepth3(const unsigned char* table, long index)
+{
+    unsigned char b = __atomic_load_n(&table[index >> 2], __ATOMIC_RELAXED);
+    return (b >> (2 * (index & 3))) & 3;
+}
+
+// Set an empty entry to value. Returns 1 if this call filled the entry, 0 if another worker got there first.
+static int claimDepth3(unsigned char* table, long index, int value)
+{
+    int shift = 2 * (int) (index & 3);
+    unsigned char old = __atomic_fetch_and(&table[index >> 2], (unsigned char) ~((3 ^ value) << shift),
+                                           __ATOMIC_RELAXED);
+    return ((old >> shift) & 3) == 3;
+}
+
+// Fill an entry and the entries of the same class that are symmetric to it. Returns the number of entries filled.
+static int claimPhase1(const phase1_sweep_t* p, int classidx, int twist, int value)
+{
+    long base = (long) N_TWIST * classidx;
+    unsigned short sym = p->selfSym[classidx];
+    int s, found = claimDepth3(p->table, base + twist, value);
+    if (found && sym != 1)
+        for (s = 1; s < N_SYM_D4h; s++)
+            if ((sym >> s) & 1)
+                found += claimDepth3(p->table, base + context.twistConj[twist][s], value);
+    return found;
+}
+
+// Entry reached by move m from the position with the given coordinates
+static long phase1_next(int flip, int slice, int twist, int m)
+{
+    int flipslice = N_FLIP * (context.FRtoBR_Move[slice * 24][m] / 24) + context.flipMove[flip][m];
+    int sym = context.flipsliceSym->sym[flipslice];
+    return (long) N_TWIST * context.flipsliceSym->classidx[flipslice] + context.twistConj[context.twistMove[twist][m]][sym];
+}
+
+static void phase1_sweep(long begin, long end, void* arg)
+{
+    phase1_sweep_t* p = (phase1_sweep_t*) arg;
+    int depth3 = p->depth % 3, next3 = (p->depth + 1) % 3;
+    int m, classidx = -1, flip = 0, slice = 0, c, twist, value;
+    long i, k, found = 0;
+    for (i = begin; i < end; i++) {
+        value = loadDepth3(p->table, i);
+        if (p->backward ? value != 3 : value != depth3)
+            continue;
+        c = (int) (i / N_TWIST);
+        twist = (int) (i % N_TWIST);
+        if (c != classidx) {
+            classidx = c;
+            flip = (int) (context.flipsliceSym->rep[c] % N_FLIP);
+            slice = (int) (context.flipsliceSym->rep[c] / N_FLIP);
+        }
+        for (m = 0; m < N_MOVE; m++) {
+            k = phase1_next(flip, slice, twist, m);
+            if (p->backward) {
+                if (loadDepth3(p->table, k) == depth3) {
+                    found += claimPhase1(p, c, twist, next3);
+                    break;
                 }
+            } else if (loadDepth3(p->table, k) == 3) {
+                found += claimPhase1(p, (int) (k / N_TWIST), (int) (k % N_TWIST), next3);
             }
-            depth++;
         }
-        dump_to_file((void*) Slice_URtoDF_Parity_Prun, sizeof(Slice_URtoDF_Parity_Prun), "Slice_URtoDF_Parity_Prun", cache_dir);
     }
+    __atomic_fetch_add(&p->done, found, __ATOMIC_RELAXED);
+}
 
-    if(check_cached_table("Slice_Twist_Prun", (void*) Slice_Twist_Prun, sizeof(Slice_Twist_Prun), cache_dir) != 0) {
-        int depth = 0, done = 1;
-        int i, j;
-        for (i = 0; i < N_SLICE1 * N_TWIST / 2 + 1; i++)
-            Slice_Twist_Prun[i] = -1;
-        setPruning(Slice_Twist_Prun, 0, 0);
-        while (done != N_SLICE1 * N_TWIST) {
-            for (i = 0; i < N_SLICE1 * N_TWIST; i++) {
-                int twist = i / N_SLICE1, slice = i % N_SLICE1;
-                if (getPruning(Slice_Twist_Prun, i) == depth) {
-                    for (j = 0; j < 18; j++) {
-                        int newSlice = FRtoBR_Move[slice * 24][j] / 24;
-                        int newTwist = twistMove[twist][j];
-                        if (getPruning(Slice_Twist_Prun, N_SLICE1 * newTwist + newSlice) == 0x0f) {
-                            setPruning(Slice_Twist_Prun, N_SLICE1 * newTwist + newSlice, (signed char) (depth + 1));
-                            done++;
-                        }
-                    }
-                }
+static void init_FlipSlice_Twist_Prun(void)
+{
+    unsigned short* selfSym = (unsigned short*) malloc(sizeof(unsigned short) * N_FLIPSLICE_CLASS);
+    phase1_sweep_t sweep;
+    long done = 1;
+
+    init_flipslice_selfsym(context.flipsliceSym, selfSym);
+    sweep.table = (unsigned char*) tables[FLIPSLICE_TWIST_PRUN].data;
+    sweep.selfSym = selfSym;
+    sweep.depth = 0;
+    memset(sweep.table, 0xff, tables[FLIPSLICE_TWIST_PRUN].size);
+    // the H-subgroup is the single position flipslice 0 (its own representant) with twist 0
+    claimDepth3(sweep.table, 0, 0);
+
+    while (done != N_FLIPSLICE_TWIST) {
+        sweep.backward = done > N_FLIPSLICE_TWIST / 2;
+        sweep.done = 0;
+        parallel_for(N_FLIPSLICE_TWIST, PHASE1_BLOCK, phase1_sweep, &sweep);
+        done += sweep.done;
+        sweep.depth++;
+    }
+    free(selfSym);
+}
+
+int getPhase1Depth3(const coordtables_t* t, int flip, int slice, int twist)
+{
+    int flipslice = N_FLIP * slice + flip;
+    long index = (long) N_TWIST * t->flipsliceSym->classidx[flipslice]
+                 + t->twistConj[twist][t->flipsliceSym->sym[flipslice]];
+    return (t->FlipSlice_Twist_Prun[index >> 2] >> (2 * (index & 3))) & 3;
+}
+
+int getPhase1Distance(const coordtables_t* t, int flip, int slice, int twist)
+{
+    int depth = 0, depth3 = getPhase1Depth3(t, flip, slice, twist), m;
+    // one of the moves always leads one step closer to the H-subgroup, unless the table is damaged
+    while (flip != 0 || slice != 0 || twist != 0) {
+        int down3 = (depth3 + 2) % 3;
+        if (depth3 == 3 || depth >= PHASE1_MAX_DISTANCE)
+            return -1;
+        for (m = 0; m < N_MOVE; m++) {
+            int flip1 = t->flipMove[flip][m];
+            int slice1 = t->FRtoBR_Move[slice * 24][m] / 24;
+            int twist1 = t->twistMove[twist][m];
+            if (getPhase1Depth3(t, flip1, slice1, twist1) == down3) {
+                flip = flip1;
+                slice = slice1;
+                twist = twist1;
+                break;
             }
-            depth++;
         }
-        dump_to_file((void*) Slice_Twist_Prun, sizeof(Slice_Twist_Prun), "Slice_Twist_Prun", cache_dir);
+        if (m == N_MOVE)
+            return -1;
+        depth3 = down3;
+        depth++;
     }
+    return depth;
+}
 
-    if(check_cached_table("Slice_Flip_Prun", (void*) Slice_Flip_Prun, sizeof(Slice_Flip_Prun), cache_dir) != 0) {
-        int depth = 0, done = 1;
-        int i, j;
-        for (i = 0; i < N_SLICE1 * N_FLIP / 2; i++)
-            Slice_Flip_Prun[i] = -1;
-        setPruning(Slice_Flip_Prun, 0, 0);
-        while (done != N_SLICE1 * N_FLIP) {
-            for (i = 0; i < N_SLICE1 * N_FLIP; i++) {
-                int flip = i / N_SLICE1, slice = i % N_SLICE1;
-                if (getPruning(Slice_Flip_Prun, i) == depth) {
-                    for (j = 0; j < 18; j++) {
-                        int newSlice = FRtoBR_Move[slice * 24][j] / 24;
-                        int newFlip = flipMove[flip][j];
-                        if (getPruning(Slice_Flip_Prun, N_SLICE1 * newFlip + newSlice) == 0x0f) {
-                            setPruning(Slice_Flip_Prun, N_SLICE1 * newFlip + newSlice, (signed char) (depth + 1));
-                            done++;
-                        }
-                    }
-                }
+int nextPhase1Distance(const coordtables_t* t, int depth, int flip, int slice, int twist)
+{
+    // a move changes the distance by at most one
+    int diff = (getPhase1Depth3(t, flip, slice, twist) - depth % 3 + 3) % 3;
+    return diff == 2 ? depth - 1 : depth + diff;
+}
+
+// Generators for every table, in table store order
+static void (*const generators[TABLE_COUNT])(void) = {
+        init_twistMove,
+        init_flipMove,
+        init_FRtoBR_Move,
+        init_URFtoDLF_Move,
+        init_URtoDF_Move,
+        init_URtoUL_Move,
+        init_UBtoDF_Move,
+        init_MergeURtoULandUBtoDF,
+#ifdef PACKED_PHASE2_TABLES
+        init_Phase2_Moves,
+#endif
+        init_FlipSlice_Sym,
+        init_TwistConj,
+        init_Slice_URFtoDLF_Parity_Prun,
+        init_Slice_URtoDF_Parity_Prun,
+        init_FlipSlice_Twist_Prun,
+};
+
+// Report the tables in ready[] to the progress callback
+static void report_progress(const int* ready, init_progress_t progress, void* arg)
+{
+    int i, done = 0;
+    long bytes = 0, total = 0;
+    if (progress == NULL)
+        return;
+    for (i = 0; i < TABLE_COUNT; i++) {
+        total += (long) tables[i].size;
+        if (ready[i]) {
+            done++;
+            bytes += (long) tables[i].size;
+        }
+    }
+    progress(done, TABLE_COUNT, bytes, total, arg);
+}
+
+// Map or generate all tables and build the table context. With check, tables whose CRC does not match are
+// regenerated too. Runs once, under context_once.
+static void init_context(const char *cache_dir, int check, init_progress_t progress, void* arg)
+{
+    void* generated[TABLE_COUNT] = {NULL};
+    void* current[TABLE_COUNT];
+    int ready[TABLE_COUNT];
+    tablestore_t fresh = {NULL, 0};
+    int i, valid;
+
+    valid = tablestore_map(&store, cache_dir, tables, TABLE_COUNT);
+    if (check)
+        valid -= tablestore_check(&store, tables, TABLE_COUNT);
+    for (i = 0; i < TABLE_COUNT; i++)
+        ready[i] = tables[i].data != NULL;
+    report_progress(ready, progress, arg);
+
+    if (valid != TABLE_COUNT) {
+        // Regenerate only the tables that are missing or corrupt. The generators run in table store order, so the
+        // move tables a pruning table depends on are always available.
+        for (i = 0; i < TABLE_COUNT; i++)
+            if (tables[i].data == NULL)
+                generated[i] = tables[i].data = calloc(1, tables[i].size);
+        bind_tables();
+        for (i = 0; i < TABLE_COUNT; i++) {
+            if (generated[i] != NULL) {
+                generators[i]();
+                ready[i] = 1;
+                report_progress(ready, progress, arg);
             }
-            depth++;
         }
-        dump_to_file((void*) Slice_Flip_Prun, sizeof(Slice_Flip_Prun), "Slice_Flip_Prun", cache_dir);
+
+        // Switch over to the rewritten file so the generated copies and the old mapping can be released
+        for (i = 0; i < TABLE_COUNT; i++)
+            current[i] = tables[i].data;
+        if (tablestore_write(cache_dir, tables, TABLE_COUNT) == 0
+            && tablestore_map(&fresh, cache_dir, tables, TABLE_COUNT) == TABLE_COUNT) {
+            for (i = 0; i < TABLE_COUNT; i++)
+                free(generated[i]);
+            tablestore_unmap(&store);
+            store = fresh;
+        } else {
+            // keep using the tables we already have
+            tablestore_unmap(&fresh);
+            for (i = 0; i < TABLE_COUNT; i++)
+                tables[i].data = current[i];
+        }
     }
+    bind_tables();
+}
 
-    PRUNING_INITED = 1;
+const coordtables_t* get_tables(const char *cache_dir)
+{
+    std::call_once(context_once, [&]() {
+        init_context(cache_dir, 0, NULL, NULL);
+    });
+    return &context;
+}
+
+const coordtables_t* get_tables_with_progress(const char *cache_dir, init_progress_t progress, void* arg)
+{
+    int initialized = 0;
+    std::call_once(context_once, [&]() {
+        init_context(cache_dir, 1, progress, arg);
+        initialized = 1;
+    });
+    if (!initialized) {
+        int i, ready[TABLE_COUNT];
+        for (i = 0; i < TABLE_COUNT; i++)
+            ready[i] = 1;
+        report_progress(ready, progress, arg);
+    }
+    return &context;
 }
 
 void setPruning(signed char *table, int index, signed char value) {
@@ -354,7 +722,7 @@ void setPruning(signed char *table, int index, signed char value) {
 }
 
 // Extract pruning value
-signed char getPruning(signed char *table, int index) {
+signed char getPruning(const signed char *table, int index) {
     signed char res;
 
     if ((index & 1) == 0)
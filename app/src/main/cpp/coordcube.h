@@ -19,6 +19,12 @@
 #define N_URtoBR    479001600
 #define N_MOVE      18
 
+// Symmetry reduction of phase 1 (see symmetry.h)
+#define N_SYM_D4h           16                  // symmetries that preserve the UD axis
+#define N_FLIPSLICE         (N_FLIP * N_SLICE1) // flipslice coordinate N_FLIP * slice + flip
+#define N_FLIPSLICE_CLASS   64430               // symmetry classes of the flipslice coordinate
+#define PHASE1_MAX_DISTANCE 12                  // no phase 1 position is farther from the H-subgroup
+
 typedef struct {
 
     // All coordinates are 0 for a solved cube except for UBtoDF, which is 114
@@ -32,82 +38,148 @@ typedef struct {
     int URtoDF;
 } coordcube_t;
 
-// ******************************************Phase 1 move tables*****************************************************
+// Moves used in phase 2: U, U2, U', R2, F2, D, D2, D', L2 and B2
+#define N_PHASE2_MOVE 10
+
+// The phase 2 successors of one coordinate. Padded to 32 bytes, so a block never straddles a cache line.
+typedef struct {
+    alignas(32) unsigned short next[N_PHASE2_MOVE];
+} phase2_block_t;
+
+// Move tables of phase 2 with one block per coordinate. FRtoBR (< 24 in phase 2) and the parity are fused into the
+// coordinate 2 * FRtoBR + parity, which is also the low part of the phase 2 pruning table indices.
+typedef struct {
+    phase2_block_t URFtoDLF[N_URFtoDLF];
+    phase2_block_t URtoDF[N_URtoDF];
+    phase2_block_t sliceParity[N_SLICE2 * N_PARITY];
+} phase2_moves_t;
+
+// Index of a move in phase2_block_t, -1 for moves that are not used in phase 2
+extern const signed char phase2MoveIndex[N_MOVE];
+
+// Symmetry classes of the flipslice coordinate. A cube with flipslice coordinate i is mapped to the representant of
+// its class by symmetry sym[i].
+typedef struct {
+    unsigned short classidx[N_FLIPSLICE];
+    unsigned char sym[N_FLIPSLICE];
+    unsigned int rep[N_FLIPSLICE_CLASS];
+} flipslice_sym_t;
+
+// Move and pruning tables of the solver. The tables point into the memory-mapped table store (see tablestore.h).
+// The context is built once by get_tables and never changes afterwards, so any number of searches can share it.
+typedef struct {
+
+    // ******************************************Phase 1 move tables*************************************************
+
+    // Move table for the twists of the corners
+    // twist < 2187 in phase 2.
+    // twist = 0 in phase 2.
+    const short (*twistMove)[N_MOVE];
+
+    // Move table for the flips of the edges
+    // flip < 2048 in phase 1
+    // flip = 0 in phase 2.
+    const short (*flipMove)[N_MOVE];
+
+    // Parity of the corner permutation. This is the same as the parity for the edge permutation of a valid cube.
+    // parity has values 0 and 1
+    const short (*parityMove)[N_MOVE];
+
+    // ***********************************Phase 1 and 2 movetable****************************************************
 
-// Move table for the twists of the corners
-// twist < 2187 in phase 2.
-// twist = 0 in phase 2.
-extern short twistMove[N_TWIST][N_MOVE];
+    // Move table for the four UD-slice edges FR, FL, Bl and BR
+    // FRtoBRMove < 11880 in phase 1
+    // FRtoBRMove < 24 in phase 2
+    // FRtoBRMove = 0 for solved cube
+    const short (*FRtoBR_Move)[N_MOVE];
 
-// Move table for the flips of the edges
-// flip < 2048 in phase 1
-// flip = 0 in phase 2.
-extern short flipMove[N_FLIP][N_MOVE];
+    // Move table for permutation of six corners. The positions of the DBL and DRB corners are determined by the
+    // parity.
+    // URFtoDLF < 20160 in phase 1
+    // URFtoDLF < 20160 in phase 2
+    // URFtoDLF = 0 for solved cube.
+    const short (*URFtoDLF_Move)[N_MOVE];
 
-// Parity of the corner permutation. This is the same as the parity for the edge permutation of a valid cube.
-// parity has values 0 and 1
-extern short parityMove[2][18];
+    // Move table for the permutation of six U-face and D-face edges in phase2. The positions of the DL and DB edges
+    // are determined by the parity.
+    // URtoDF < 665280 in phase 1
+    // URtoDF < 20160 in phase 2
+    // URtoDF = 0 for solved cube.
+    const short (*URtoDF_Move)[N_MOVE];
 
-// ***********************************Phase 1 and 2 movetable********************************************************
+    // **************************helper move tables to compute URtoDF for the beginning of phase2********************
 
-// Move table for the four UD-slice edges FR, FL, Bl and BR
-// FRtoBRMove < 11880 in phase 1
-// FRtoBRMove < 24 in phase 2
-// FRtoBRMove = 0 for solved cube
-extern short FRtoBR_Move[N_FRtoBR][N_MOVE];
+    // Move table for the three edges UR,UF and UL in phase1.
+    const short (*URtoUL_Move)[N_MOVE];
 
-// Move table for permutation of six corners. The positions of the DBL and DRB corners are determined by the parity.
-// URFtoDLF < 20160 in phase 1
-// URFtoDLF < 20160 in phase 2
-// URFtoDLF = 0 for solved cube.
-extern short URFtoDLF_Move[N_URFtoDLF][N_MOVE];
+    // Move table for the three edges UB,DR and DF in phase1.
+    const short (*UBtoDF_Move)[N_MOVE];
 
-// Move table for the permutation of six U-face and D-face edges in phase2. The positions of the DL and DB edges are
-// determined by the parity.
-// URtoDF < 665280 in phase 1
-// URtoDF < 20160 in phase 2
-// URtoDF = 0 for solved cube.
-extern short URtoDF_Move[N_URtoDF][N_MOVE];
+    // Table to merge the coordinates of the UR,UF,UL and UB,DR,DF edges at the beginning of phase2
+    const short (*MergeURtoULandUBtoDF)[336];
 
-// **************************helper move tables to compute URtoDF for the beginning of phase2************************
+#ifdef PACKED_PHASE2_TABLES
+    // The phase 2 parts of URFtoDLF_Move, URtoDF_Move, FRtoBR_Move and parityMove in a cache friendly layout
+    const phase2_moves_t* phase2Moves;
+#endif
+
+    // ****************************************Pruning tables for the search*****************************************
 
-// Move table for the three edges UR,UF and UL in phase1.
-extern short URtoUL_Move[N_URtoUL][N_MOVE];
+    // Pruning table for the permutation of the corners and the UD-slice edges in phase2.
+    // The pruning table entries give a lower estimation for the number of moves to reach the solved cube.
+    const signed char* Slice_URFtoDLF_Parity_Prun;
 
-// Move table for the three edges UB,DR and DF in phase1.
-extern short UBtoDF_Move[N_UBtoDF][N_MOVE];
+    // Pruning table for the permutation of the edges in phase2.
+    // The pruning table entries give a lower estimation for the number of moves to reach the solved cube.
+    const signed char* Slice_URtoDF_Parity_Prun;
 
-// Table to merge the coordinates of the UR,UF,UL and UB,DR,DF edges at the beginning of phase2
-extern short MergeURtoULandUBtoDF[336][336];
+    // ******************************Symmetry reduced phase 1 pruning table*****************************************
 
-// ****************************************Pruning tables for the search*********************************************
+    // Symmetry classes of the flipslice coordinate
+    const flipslice_sym_t* flipsliceSym;
 
-// Pruning table for the permutation of the corners and the UD-slice edges in phase2.
-// The pruning table entries give a lower estimation for the number of moves to reach the solved cube.
-extern signed char Slice_URFtoDLF_Parity_Prun[N_SLICE2 * N_URFtoDLF * N_PARITY / 2];
+    // twistConj[twist][s] is the twist of the cube conjugated by symmetry s
+    const unsigned short (*twistConj)[N_SYM_D4h];
 
-// Pruning table for the permutation of the edges in phase2.
-// The pruning table entries give a lower estimation for the number of moves to reach the solved cube.
-extern signed char Slice_URtoDF_Parity_Prun[N_SLICE2 * N_URtoDF * N_PARITY / 2];
+    // Pruning table for the flip, twist and position (not permutation) of the UD-slice edges in phase1, indexed by
+    // N_TWIST * flipslice class + twist conjugated to the representant. Each entry is the exact number of moves to
+    // reach the H-subgroup modulo 3, stored in 2 bits (3 = not yet reached, during generation only). The distance of
+    // a cube follows from the distance of its predecessor, see getPhase1Distance and nextPhase1Distance.
+    const unsigned char* FlipSlice_Twist_Prun;
+} coordtables_t;
 
-// Pruning table for the twist of the corners and the position (not permutation) of the UD-slice edges in phase1
-// The pruning table entries give a lower estimation for the number of moves to reach the H-subgroup.
-extern signed char Slice_Twist_Prun[N_SLICE1 * N_TWIST / 2 + 1];
+// Progress of the table initialization: tables and bytes that are loaded or generated so far, out of the totals
+typedef void (*init_progress_t)(int tables_done, int tables_total, long bytes_done, long bytes_total, void* arg);
 
-// Pruning table for the flip of the edges and the position (not permutation) of the UD-slice edges in phase1
-// The pruning table entries give a lower estimation for the number of moves to reach the H-subgroup.
-extern signed char Slice_Flip_Prun[N_SLICE1 * N_FLIP / 2];
+// Return the table context, loading or generating the tables on first use. Thread-safe: the first call initializes
+// the tables (concurrent callers wait for it), later calls return at once. cache_dir is only used by the first call.
+const coordtables_t* get_tables(const char *cache_dir);
 
-extern int PRUNING_INITED;
-void initPruning(const char *cache_dir);
+// Same as get_tables, calling progress (if not NULL) after the cache is mapped and after every generated table.
+// Callers that do not initialize the tables themselves get one final report. The first call also checks the CRC of
+// every table in the cache file (see tablestore_check) and regenerates the ones that do not match, so it reads the whole
+// file: meant for the background warm-up, which has to run before the first solve.
+const coordtables_t* get_tables_with_progress(const char *cache_dir, init_progress_t progress, void* arg);
 
 // Set pruning value in table. Two values are stored in one char.
 void setPruning(signed char *table, int index, signed char value);
 
 // Extract pruning value
-signed char getPruning(signed char *table, int index);
+signed char getPruning(const signed char *table, int index);
+
+// Distance of a phase 1 position to the H-subgroup modulo 3
+int getPhase1Depth3(const coordtables_t* t, int flip, int slice, int twist);
+
+// Exact distance of a phase 1 position to the H-subgroup, or -1 if the pruning table does not lead there in
+// PHASE1_MAX_DISTANCE moves (the table is damaged)
+int getPhase1Distance(const coordtables_t* t, int flip, int slice, int twist);
+
+// Exact distance of a phase 1 position one move away from a position with distance depth
+int nextPhase1Distance(const coordtables_t* t, int depth, int flip, int slice, int twist);
 
 coordcube_t* get_coordcube(cubiecube_t* cubiecube);
-void move(coordcube_t* coordcube, int m, const char *cache_dir);
+// Same as get_coordcube, but fills result instead of allocating
+void set_coordcube(coordcube_t* result, cubiecube_t* cubiecube);
+void move(coordcube_t* coordcube, int m, const coordtables_t* tables);
 
 #endif
@@ -1,14 +1,58 @@
 #include <jni.h>
+#include <atomic>
+#include <cstring>
 #include <string>
+#include <vector>
+#include "cubestate.h"
+#include "multisearch.h"
+#include "parallel.h"
 #include "search.h"
+#include "solutioncache.h"
 
 #define LOG_TAG "cube-solver"
 #define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
 
+// Ходы как byte[] индексов 3 * ось + степень - 1 (см. MoveSequence)
+static jbyteArray moves_to_array(JNIEnv *env, const signed char *moves, int length)
+{
+    jbyteArray array = env->NewByteArray(length);
+    if (array != nullptr) {
+        env->SetByteArrayRegion(array, 0, length, reinterpret_cast<const jbyte*>(moves));
+    }
+    return array;
+}
+
+// Слушатель промежуточных решений (SolutionListener)
+typedef struct {
+    JNIEnv *env;
+    jobject listener;
+    jmethodID onSolution;
+} solution_listener_t;
+
+static void report_solution(const signed char *moves, int length, void *arg)
+{
+    solution_listener_t *l = static_cast<solution_listener_t*>(arg);
+    jbyteArray array = moves_to_array(l->env, moves, length);
+    if (array == nullptr) {
+        l->env->ExceptionClear();
+        return;
+    }
+    l->env->CallVoidMethod(l->listener, l->onSolution, array);
+    if (l->env->ExceptionCheck()) {
+        l->env->ExceptionClear();
+    }
+    l->env->DeleteLocalRef(array);
+}
+
+// С listener ищет всё более короткие решения, пока не истечёт timeOutMs, не выставлен флаг отмены или не доказано,
+// что короче не бывает; каждое улучшение сразу передаётся в listener. Без listener возвращает первое найденное
+// решение, как раньше. Результат - лучшее решение или null.
+// Решения передаются как индексы ходов (см. MoveSequence).
 extern "C"
-JNIEXPORT jstring JNICALL
+JNIEXPORT jbyteArray JNICALL
 Java_com_example_artem52_MainActivity_solveCube(JNIEnv *env, jobject thiz, jstring facelets,
-                                            jstring pattern) {
+                                            jstring pattern, jlong timeOutMs, jlong cancelHandle,
+                                            jobject listener) {
     const char *facelets_cstr = env->GetStringUTFChars(facelets, nullptr);
     const char *pattern_cstr = pattern ? env->GetStringUTFChars(pattern, nullptr) : nullptr;
 
@@ -31,13 +75,52 @@ Java_com_example_artem52_MainActivity_solveCube(JNIEnv *env, jobject thiz, jstri
     jstring cachePath = (jstring)env->CallObjectMethod(cacheDir, getPath);
     const char *cachePathStr = env->GetStringUTFChars(cachePath, nullptr);
 
-    char *sol = solution(
-            const_cast<char*>(input),
-            24,
-            1000,
-            0,
-            cachePathStr  // Используем правильный путь
-    );
+    // По истечении времени или при отмене возвращается лучшее найденное решение
+    solve_options_t options = { 24, (long) timeOutMs,
+                                reinterpret_cast<const std::atomic<int>*>(cancelHandle), listener != nullptr,
+                                nullptr, nullptr, nullptr };
+    solution_listener_t l;
+    if (listener != nullptr) {
+        l.env = env;
+        l.listener = listener;
+        l.onSolution = env->GetMethodID(env->GetObjectClass(listener), "onSolution", "([B)V");
+        options.onSolution = report_solution;
+        options.arg = &l;
+    }
+    signed char moves[SOLVE_MAX_MOVES];
+    int length = 0;
+    cubiecube_t cube;
+    int status = parse_cube(const_cast<char*>(input), &cube);
+    // Тот же или симметричный куб уже решали - решение из кэша отдаётся сразу. Оно могло прийти из поиска,
+    // прерванного по времени, поэтому в режиме keepBest оставшееся время ищем только более короткие решения.
+    bool cached = status == SOLVE_OK && solution_cache_get(&cube, options.maxDepth, moves, &length);
+    if (cached && options.onSolution != nullptr) {
+        options.onSolution(moves, length, options.arg);
+    }
+    if (status == SOLVE_OK && (!cached || (options.keepBest && length > 0))) {
+        solve_options_t search = options;
+        signed char found[SOLVE_MAX_MOVES];
+        int foundLength = 0;
+        if (cached) {
+            search.maxDepth = length - 1;
+        }
+        // Ищем сразу по всем трём осям и для обратного куба, на разных ядрах
+        int searchStatus = solve_moves_multi(
+                const_cast<char*>(input),
+                &search,
+                cachePathStr,  // Используем правильный путь
+                found,
+                &foundLength
+        );
+        if (searchStatus == SOLVE_OK) {
+            memcpy(moves, found, foundLength);
+            length = foundLength;
+            // Запись с более коротким решением кэш не заменит
+            solution_cache_put(&cube, moves, length);
+        } else if (!cached) {
+            status = searchStatus;
+        }
+    }
 
     env->ReleaseStringUTFChars(cachePath, cachePathStr);
 
@@ -47,11 +130,222 @@ Java_com_example_artem52_MainActivity_solveCube(JNIEnv *env, jobject thiz, jstri
         env->ReleaseStringUTFChars(pattern, pattern_cstr);
     }
 
-    if (!sol) {
-        return env->NewStringUTF("Ошибка: Не удалось решить");
+    if (status != SOLVE_OK) {
+        return nullptr;
     }
+    return moves_to_array(env, moves, length);
+}
+
+// Состояние фонового прогрева таблиц
+typedef struct {
+    JNIEnv *env;
+    jobject listener;
+    jmethodID onProgress;
+} warmup_t;
+
+static void warmup_progress(int tables_done, int tables_total, long bytes_done, long bytes_total, void *arg)
+{
+    warmup_t *w = static_cast<warmup_t*>(arg);
+    w->env->CallVoidMethod(w->listener, w->onProgress, tables_done, tables_total,
+                           (jlong) bytes_done, (jlong) bytes_total);
+    if (w->env->ExceptionCheck()) {
+        w->env->ExceptionClear();
+    }
+}
+
+// Загружает таблицы (со сверкой CRC, испорченные пересчитываются) или генерирует их. Вызов блокирующий:
+// MainActivity запускает его в фоновом потоке, чтобы первый solveCube не ждал таблиц. Прогресс сообщается
+// через SolverWarmUpListener из этого же потока.
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_example_artem52_MainActivity_warmUpSolver(JNIEnv *env, jobject thiz, jstring cacheDir,
+                                                 jobject listener) {
+    const char *cache_cstr = env->GetStringUTFChars(cacheDir, nullptr);
+    std::string cachePath(cache_cstr);
+    env->ReleaseStringUTFChars(cacheDir, cache_cstr);
+
+    jclass cls = env->GetObjectClass(listener);
+    jmethodID onProgress = env->GetMethodID(cls, "onProgress", "(IIJJ)V");
+
+    warmup_t w = { env, listener, onProgress };
+    get_tables_with_progress(cachePath.c_str(), warmup_progress, &w);
+    // Решения, сохранённые в прошлых запусках
+    solution_cache_load(cachePath.c_str());
+}
+
+// Состояние пакетного решения: входные развёртки (или упакованные состояния) и результаты для каждого кубика
+typedef struct {
+    std::vector<std::string> facelets;
+    std::vector<cubestate_t> states;  // если не пусто, решаются состояния, а не развёртки
+    std::vector<signed char> moves;   // SOLVE_MAX_MOVES ходов на кубик
+    std::vector<jint> lengths;
+    std::vector<jint> status;
+    std::string cachePath;
+    solve_options_t options;
+} batch_t;
+
+static void solve_batch_range(long begin, long end, void *arg)
+{
+    batch_t *b = static_cast<batch_t*>(arg);
+    char input[55];
+    for (long i = begin; i < end; i++) {
+        int length = 0;
+        if (!b->states.empty()) {
+            cubiecube_t cube;
+            b->status[i] = cubestate_verify(b->states[i]);
+            if (b->status[i] == SOLVE_OK) {
+                cubestate_unpack(b->states[i], &cube);
+                b->status[i] = solve_cubie(&cube, &b->options, b->cachePath.c_str(),
+                                           &b->moves[i * SOLVE_MAX_MOVES], &length);
+            }
+            b->lengths[i] = length;
+            continue;
+        }
+        const std::string &f = b->facelets[i];
+        if (f.size() != 54) {
+            b->status[i] = SOLVE_BAD_FACELETS;
+            b->lengths[i] = 0;
+            continue;
+        }
+        f.copy(input, 54);
+        input[54] = '\0';
+        b->status[i] = solve_moves(input, &b->options, b->cachePath.c_str(),
+                                   &b->moves[i * SOLVE_MAX_MOVES], &length);
+        b->lengths[i] = length;
+    }
+}
+
+static void init_batch(JNIEnv *env, batch_t *b, jstring cacheDir, jint maxDepth, jlong timeOutMs)
+{
+    const char *cache_cstr = env->GetStringUTFChars(cacheDir, nullptr);
+    b->cachePath = cache_cstr;
+    env->ReleaseStringUTFChars(cacheDir, cache_cstr);
+    b->options.maxDepth = maxDepth < SOLVE_MAX_MOVES ? maxDepth : SOLVE_MAX_MOVES;
+    b->options.timeOut = (long) timeOutMs;
+    b->options.cancel = nullptr;
+    b->options.keepBest = 0;
+    b->options.onSolution = nullptr;
+    b->options.arg = nullptr;
+    b->options.bound = nullptr;
+}
+
+// Решает n кубиков пакета на всех ядрах и упаковывает ходы всех кубиков подряд
+static jbyteArray run_batch(JNIEnv *env, batch_t *b, jsize n, jintArray status, jintArray offsets)
+{
+    b->moves.resize((size_t) n * SOLVE_MAX_MOVES);
+    b->lengths.resize(n);
+    b->status.resize(n);
+
+    // Таблицы загружаются один раз до старта рабочих потоков
+    get_tables(b->cachePath.c_str());
+    parallel_for(n, 1, solve_batch_range, b);
 
-    jstring result = env->NewStringUTF(sol);
-    free(sol);
+    std::vector<jint> offs(n + 1);
+    offs[0] = 0;
+    for (jsize i = 0; i < n; i++) {
+        offs[i + 1] = offs[i] + b->lengths[i];
+    }
+    jbyteArray result = env->NewByteArray(offs[n]);
+    if (result == nullptr) {
+        return nullptr;
+    }
+    for (jsize i = 0; i < n; i++) {
+        env->SetByteArrayRegion(result, offs[i], b->lengths[i],
+                                reinterpret_cast<const jbyte*>(&b->moves[(size_t) i * SOLVE_MAX_MOVES]));
+    }
+    env->SetIntArrayRegion(status, 0, n, b->status.data());
+    env->SetIntArrayRegion(offsets, 0, n + 1, offs.data());
     return result;
-}
\ No newline at end of file
+}
+
+// Решает сразу массив развёрток на всех ядрах за один вызов JNI.
+// status[i] получает код SOLVE_* для i-го кубика, offsets (размер n + 1) - границы его ходов в возвращаемом массиве:
+// ходы кубика i лежат в [offsets[i], offsets[i + 1]) в виде индексов 3 * ось + степень - 1 (0..17).
+extern "C"
+JNIEXPORT jbyteArray JNICALL
+Java_com_example_artem52_BatchSolver_solveBatch(JNIEnv *env, jobject thiz, jstring cacheDir,
+                                              jobjectArray facelets, jint maxDepth, jlong timeOutMs,
+                                              jintArray status, jintArray offsets) {
+    jsize n = env->GetArrayLength(facelets);
+    batch_t b;
+    init_batch(env, &b, cacheDir, maxDepth, timeOutMs);
+
+    // Строки копируются здесь: JNIEnv нельзя использовать из рабочих потоков
+    b.facelets.resize(n);
+    for (jsize i = 0; i < n; i++) {
+        jstring s = (jstring) env->GetObjectArrayElement(facelets, i);
+        if (s != nullptr) {
+            const char *cstr = env->GetStringUTFChars(s, nullptr);
+            b.facelets[i] = cstr;
+            env->ReleaseStringUTFChars(s, cstr);
+            env->DeleteLocalRef(s);
+        }
+    }
+    return run_batch(env, &b, n, status, offsets);
+}
+
+// То же для упакованных состояний (CubeState): states[2 * i] - углы, states[2 * i + 1] - рёбра i-го кубика
+extern "C"
+JNIEXPORT jbyteArray JNICALL
+Java_com_example_artem52_BatchSolver_solveBatchStates(JNIEnv *env, jobject thiz, jstring cacheDir,
+                                                    jlongArray states, jint maxDepth, jlong timeOutMs,
+                                                    jintArray status, jintArray offsets) {
+    jsize n = env->GetArrayLength(states) / 2;
+    batch_t b;
+    init_batch(env, &b, cacheDir, maxDepth, timeOutMs);
+
+    std::vector<jlong> words((size_t) n * 2);
+    env->GetLongArrayRegion(states, 0, n * 2, words.data());
+    b.states.resize(n);
+    for (jsize i = 0; i < n; i++) {
+        b.states[i].corners = (uint64_t) words[2 * i];
+        b.states[i].edges = (uint64_t) words[2 * i + 1];
+    }
+    return run_batch(env, &b, n, status, offsets);
+}
+
+// Флаг отмены решения (см. SolveCancellation). Хэндл - указатель на std::atomic<int>.
+extern "C"
+JNIEXPORT jlong JNICALL
+Java_com_example_artem52_SolveCancellation_nativeCreate(JNIEnv *env, jclass clazz) {
+    return reinterpret_cast<jlong>(new std::atomic<int>(0));
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_example_artem52_SolveCancellation_nativeCancel(JNIEnv *env, jclass clazz, jlong handle) {
+    reinterpret_cast<std::atomic<int>*>(handle)->store(1, std::memory_order_relaxed);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_example_artem52_SolveCancellation_nativeDestroy(JNIEnv *env, jclass clazz, jlong handle) {
+    delete reinterpret_cast<std::atomic<int>*>(handle);
+}
+
+// Кэш решений (см. SolutionCache)
+extern "C"
+JNIEXPORT jboolean JNICALL
+Java_com_example_artem52_SolutionCache_save(JNIEnv *env, jobject thiz, jstring cacheDir) {
+    const char *cache_cstr = env->GetStringUTFChars(cacheDir, nullptr);
+    int res = solution_cache_save(cache_cstr);
+    env->ReleaseStringUTFChars(cacheDir, cache_cstr);
+    return res == 0 ? JNI_TRUE : JNI_FALSE;
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_example_artem52_SolutionCache_clear(JNIEnv *env, jobject thiz) {
+    solution_cache_clear();
+}
+
+// stats = [попадания, промахи, число записей]
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_example_artem52_SolutionCache_nativeStats(JNIEnv *env, jobject thiz, jlongArray stats) {
+    long hits, misses;
+    int size;
+    solution_cache_stats(&hits, &misses, &size);
+    jlong values[3] = { (jlong) hits, (jlong) misses, (jlong) size };
+    env->SetLongArrayRegion(stats, 0, 3, values);
+}
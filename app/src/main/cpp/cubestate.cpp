@@ -0,0 +1,130 @@
+#include "cubestate.h"
+#include "facecube.h"
+#include "search.h"
+
+#define FIELD_MASK 0x1f
+
+// Move tables on packed fields: the new field of position i after move m is next[m][i][old field of src[m][i]]
+typedef struct {
+    unsigned char cornerSrc[N_MOVE][CORNER_COUNT];
+    unsigned char cornerNext[N_MOVE][CORNER_COUNT][32];
+    unsigned char edgeSrc[N_MOVE][EDGE_COUNT];
+    unsigned char edgeNext[N_MOVE][EDGE_COUNT][32];
+} cubestate_moves_t;
+
+static cubestate_moves_t build_moves(void)
+{
+    cubestate_moves_t t;
+    cubiecube_t mc;
+    int m, p, i, v;
+
+    for (m = 0; m < N_MOVE; m++) {
+        cubiecube_t* solved = get_cubiecube();
+        mc = *solved;
+        free(solved);
+        for (p = 0; p <= m % 3; p++)
+            multiply(&mc, &get_moveCube()[m / 3]);
+        // see cornerMultiply and edgeMultiply: position i gets the cubie of position mc.cp[i], twisted by mc.co[i]
+        for (i = 0; i < CORNER_COUNT; i++) {
+            t.cornerSrc[m][i] = (unsigned char) mc.cp[i];
+            for (v = 0; v < 32; v++)
+                t.cornerNext[m][i][v] = (unsigned char) ((v & ~3) | ((v & 3) + mc.co[i]) % 3);
+        }
+        for (i = 0; i < EDGE_COUNT; i++) {
+            t.edgeSrc[m][i] = (unsigned char) mc.ep[i];
+            for (v = 0; v < 32; v++)
+                t.edgeNext[m][i][v] = (unsigned char) (v ^ mc.eo[i]);
+        }
+    }
+    return t;
+}
+
+static const cubestate_moves_t* get_moves(void)
+{
+    static const cubestate_moves_t moves = build_moves();
+    return &moves;
+}
+
+cubestate_t cubestate_pack(const cubiecube_t* cc)
+{
+    cubestate_t s = { 0, 0 };
+    int i;
+    for (i = 0; i < CORNER_COUNT; i++)
+        s.corners |= (uint64_t) (cc->cp[i] << 2 | cc->co[i]) << (5 * i);
+    for (i = 0; i < EDGE_COUNT; i++)
+        s.edges |= (uint64_t) (cc->ep[i] << 1 | cc->eo[i]) << (5 * i);
+    return s;
+}
+
+void cubestate_unpack(cubestate_t s, cubiecube_t* cc)
+{
+    int i, v;
+    for (i = 0; i < CORNER_COUNT; i++) {
+        v = (int) (s.corners >> (5 * i)) & FIELD_MASK;
+        cc->cp[i] = (corner_t) (v >> 2);
+        cc->co[i] = (signed char) (v & 3);
+    }
+    for (i = 0; i < EDGE_COUNT; i++) {
+        v = (int) (s.edges >> (5 * i)) & FIELD_MASK;
+        cc->ep[i] = (edge_t) (v >> 1);
+        cc->eo[i] = (signed char) (v & 1);
+    }
+}
+
+cubestate_t cubestate_move(cubestate_t s, int m)
+{
+    const cubestate_moves_t* t = get_moves();
+    cubestate_t res = { 0, 0 };
+    int i;
+    for (i = 0; i < CORNER_COUNT; i++)
+        res.corners |= (uint64_t) t->cornerNext[m][i][(s.corners >> (5 * t->cornerSrc[m][i])) & FIELD_MASK] << (5 * i);
+    for (i = 0; i < EDGE_COUNT; i++)
+        res.edges |= (uint64_t) t->edgeNext[m][i][(s.edges >> (5 * t->edgeSrc[m][i])) & FIELD_MASK] << (5 * i);
+    return res;
+}
+
+int cubestate_verify(cubestate_t s)
+{
+    cubiecube_t cc;
+    int i;
+    // unused high bits, twists of 3 and edges beyond BR are not representable by a cubie cube
+    if ((s.corners >> (5 * CORNER_COUNT)) != 0 || (s.edges >> (5 * EDGE_COUNT)) != 0)
+        return SOLVE_BAD_CUBE;
+    for (i = 0; i < CORNER_COUNT; i++)
+        if (((s.corners >> (5 * i)) & 3) == 3)
+            return SOLVE_BAD_CUBE;
+    for (i = 0; i < EDGE_COUNT; i++)
+        if (((s.edges >> (5 * i + 1)) & 0xf) >= EDGE_COUNT)
+            return SOLVE_BAD_CUBE;
+    cubestate_unpack(s, &cc);
+    return verify(&cc) == 0 ? SOLVE_OK : SOLVE_BAD_CUBE;
+}
+
+int cubestate_from_facelets(const char* facelets, cubestate_t* s)
+{
+    cubiecube_t cc;
+    int status = parse_cube((char*) facelets, &cc);
+    if (status == SOLVE_OK)
+        *s = cubestate_pack(&cc);
+    return status;
+}
+
+void cubestate_to_facelets(cubestate_t s, char* res)
+{
+    static const char colors[] = "URFDLB";
+    static const char centers[] = { U5, R5, F5, D5, L5, B5 };
+    cubiecube_t cc;
+    int i, n;
+
+    cubestate_unpack(s, &cc);
+    // see toFaceCube
+    for (i = 0; i < COLOR_COUNT; i++)
+        res[(int) centers[i]] = colors[i];
+    for (i = 0; i < CORNER_COUNT; i++)
+        for (n = 0; n < 3; n++)
+            res[cornerFacelet[i][(n + cc.co[i]) % 3]] = colors[cornerColor[cc.cp[i]][n]];
+    for (i = 0; i < EDGE_COUNT; i++)
+        for (n = 0; n < 2; n++)
+            res[edgeFacelet[i][(n + cc.eo[i]) % 2]] = colors[edgeColor[cc.ep[i]][n]];
+    res[FACELET_COUNT] = 0;
+}
@@ -0,0 +1,43 @@
+#ifndef CUBESTATE_H
+#define CUBESTATE_H
+
+#include <stdint.h>
+#include "cubiecube.h"
+
+// Cube state packed into two 64 bit words, the compact form of cubiecube_t for caches and batch APIs.
+// Position i of corners holds the 5 bits (cp[i] << 2 | co[i]) at bit 5 * i, position i of edges the 5 bits
+// (ep[i] << 1 | eo[i]) at bit 5 * i. The same layout is used by the Kotlin CubeState.
+typedef struct {
+    uint64_t corners;
+    uint64_t edges;
+} cubestate_t;
+
+// The solved cube
+#define CUBESTATE_SOLVED_CORNERS 0x000000e629062080ULL
+#define CUBESTATE_SOLVED_EDGES   0x0b52507314831040ULL
+
+static inline int cubestate_equal(cubestate_t a, cubestate_t b)
+{
+    return a.corners == b.corners && a.edges == b.edges;
+}
+
+static inline uint64_t cubestate_hash(cubestate_t s)
+{
+    return s.corners * 0x9e3779b97f4a7c15ULL ^ s.edges;
+}
+
+cubestate_t cubestate_pack(const cubiecube_t* cc);
+void cubestate_unpack(cubestate_t s, cubiecube_t* cc);
+
+// State after move m (3 * axis + power - 1, axes in URFDLB order), by table lookup
+cubestate_t cubestate_move(cubestate_t s, int m);
+
+// Check a state that did not come from cubestate_pack of a valid cube (e.g. from Java): SOLVE_OK or SOLVE_BAD_CUBE
+int cubestate_verify(cubestate_t s);
+
+// Facelet string (see facelet.h) to state and back. cubestate_from_facelets returns SOLVE_OK, SOLVE_BAD_FACELETS or
+// SOLVE_BAD_CUBE like parse_cube; res of cubestate_to_facelets must hold 55 chars.
+int cubestate_from_facelets(const char* facelets, cubestate_t* s);
+void cubestate_to_facelets(cubestate_t s, char* res);
+
+#endif
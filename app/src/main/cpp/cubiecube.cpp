@@ -1,61 +1,29 @@
 #include "cubiecube.h"
 #include "facecube.h"
 
-cubiecube_t * get_moveCube()
-{
-    static cubiecube_t moveCube[6];
-    static int moveCube_initialized = 0;
-    static const corner_t     cpU[8]  = { UBR, URF, UFL, ULB, DFR, DLF, DBL, DRB };
-    static const signed char  coU[8]  = { 0, 0, 0, 0, 0, 0, 0, 0 };
-    static const edge_t       epU[12] = { UB, UR, UF, UL, DR, DF, DL, DB, FR, FL, BL, BR };
-    static const signed char  eoU[12] = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
-    static const corner_t     cpR[8]  = { DFR, UFL, ULB, URF, DRB, DLF, DBL, UBR };
-    static const signed char  coR[8]  = { 2, 0, 0, 1, 1, 0, 0, 2 };
-    static const edge_t       epR[12] = { FR, UF, UL, UB, BR, DF, DL, DB, DR, FL, BL, UR };
-    static const signed char  eoR[12] = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
-    static const corner_t     cpF[8]  = { UFL, DLF, ULB, UBR, URF, DFR, DBL, DRB };
-    static const signed char  coF[8]  = { 1, 2, 0, 0, 2, 1, 0, 0 };
-    static const edge_t       epF[12] = { UR, FL, UL, UB, DR, FR, DL, DB, UF, DF, BL, BR };
-    static const signed char  eoF[12] = { 0, 1, 0, 0, 0, 1, 0, 0, 1, 1, 0, 0 };
-    static const corner_t     cpD[8]  = { URF, UFL, ULB, UBR, DLF, DBL, DRB, DFR };
-    static const signed char  coD[8]  = { 0, 0, 0, 0, 0, 0, 0, 0 };
-    static const edge_t       epD[12] = { UR, UF, UL, UB, DF, DL, DB, DR, FR, FL, BL, BR };
-    static const signed char  eoD[12] = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
-    static const corner_t     cpL[8]  = { URF, ULB, DBL, UBR, DFR, UFL, DLF, DRB };
-    static const signed char  coL[8]  = { 0, 1, 2, 0, 0, 2, 1, 0 };
-    static const edge_t       epL[12] = { UR, UF, BL, UB, DR, DF, FL, DB, FR, UL, DL, BR };
-    static const signed char  eoL[12] = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
-    static const corner_t     cpB[8]  = { URF, UFL, UBR, DRB, DFR, DLF, ULB, DBL };
-    static const signed char  coB[8]  = { 0, 0, 1, 2, 0, 0, 2, 1 };
-    static const edge_t       epB[12] = { UR, UF, UL, BR, DR, DF, DL, BL, FR, FL, UB, DB };
-    static const signed char  eoB[12] = { 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 1, 1 };
-
-    if (!moveCube_initialized) {
-        memcpy(moveCube[0].cp, cpU, sizeof(cpU));
-        memcpy(moveCube[0].co, coU, sizeof(coU));
-        memcpy(moveCube[0].ep, epU, sizeof(epU));
-        memcpy(moveCube[0].eo, eoU, sizeof(eoU));
-        memcpy(moveCube[1].cp, cpR, sizeof(cpR));
-        memcpy(moveCube[1].co, coR, sizeof(coR));
-        memcpy(moveCube[1].ep, epR, sizeof(epR));
-        memcpy(moveCube[1].eo, eoR, sizeof(eoR));
-        memcpy(moveCube[2].cp, cpF, sizeof(cpF));
-        memcpy(moveCube[2].co, coF, sizeof(coF));
-        memcpy(moveCube[2].ep, epF, sizeof(epF));
-        memcpy(moveCube[2].eo, eoF, sizeof(eoF));
-        memcpy(moveCube[3].cp, cpD, sizeof(cpD));
-        memcpy(moveCube[3].co, coD, sizeof(coD));
-        memcpy(moveCube[3].ep, epD, sizeof(epD));
-        memcpy(moveCube[3].eo, eoD, sizeof(eoD));
-        memcpy(moveCube[4].cp, cpL, sizeof(cpL));
-        memcpy(moveCube[4].co, coL, sizeof(coL));
-        memcpy(moveCube[4].ep, epL, sizeof(epL));
-        memcpy(moveCube[4].eo, eoL, sizeof(eoL));
-        memcpy(moveCube[5].cp, cpB, sizeof(cpB));
-        memcpy(moveCube[5].co, coB, sizeof(coB));
-        memcpy(moveCube[5].ep, epB, sizeof(epB));
-        memcpy(moveCube[5].eo, eoB, sizeof(eoB));
-    }
+const cubiecube_t* get_moveCube()
+{
+    // Initialized at compile time and never written, so it can be shared between threads
+    static const cubiecube_t moveCube[6] = {
+            // U
+            { { UBR, URF, UFL, ULB, DFR, DLF, DBL, DRB }, { 0, 0, 0, 0, 0, 0, 0, 0 },
+              { UB, UR, UF, UL, DR, DF, DL, DB, FR, FL, BL, BR }, { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 } },
+            // R
+            { { DFR, UFL, ULB, URF, DRB, DLF, DBL, UBR }, { 2, 0, 0, 1, 1, 0, 0, 2 },
+              { FR, UF, UL, UB, BR, DF, DL, DB, DR, FL, BL, UR }, { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 } },
+            // F
+            { { UFL, DLF, ULB, UBR, URF, DFR, DBL, DRB }, { 1, 2, 0, 0, 2, 1, 0, 0 },
+              { UR, FL, UL, UB, DR, FR, DL, DB, UF, DF, BL, BR }, { 0, 1, 0, 0, 0, 1, 0, 0, 1, 1, 0, 0 } },
+            // D
+            { { URF, UFL, ULB, UBR, DLF, DBL, DRB, DFR }, { 0, 0, 0, 0, 0, 0, 0, 0 },
+              { UR, UF, UL, UB, DF, DL, DB, DR, FR, FL, BL, BR }, { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 } },
+            // L
+            { { URF, ULB, DBL, UBR, DFR, UFL, DLF, DRB }, { 0, 1, 2, 0, 0, 2, 1, 0 },
+              { UR, UF, BL, UB, DR, DF, FL, DB, FR, UL, DL, BR }, { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 } },
+            // B
+            { { URF, UFL, UBR, DRB, DFR, DLF, ULB, DBL }, { 0, 0, 1, 2, 0, 0, 2, 1 },
+              { UR, UF, UL, BR, DR, DF, DL, BL, FR, FL, UB, DB }, { 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 1, 1 } },
+    };
 
     return moveCube;
 }
@@ -154,7 +122,7 @@ facecube_t* toFaceCube(cubiecube_t* cubiecube)
     return fcRet;
 }
 
-void cornerMultiply(cubiecube_t* cubiecube, cubiecube_t* b)
+void cornerMultiply(cubiecube_t* cubiecube, const cubiecube_t* b)
 {
     int corn;
     signed char oriA, oriB, ori;
@@ -202,7 +170,7 @@ void cornerMultiply(cubiecube_t* cubiecube, cubiecube_t* b)
     }
 }
 
-void edgeMultiply(cubiecube_t* cubiecube, cubiecube_t* b)
+void edgeMultiply(cubiecube_t* cubiecube, const cubiecube_t* b)
 {
     int edge;
     edge_t ePerm[12] = {(edge_t)0};
@@ -218,7 +186,7 @@ void edgeMultiply(cubiecube_t* cubiecube, cubiecube_t* b)
     }
 }
 
-void multiply(cubiecube_t* cubiecube, cubiecube_t* b)
+void multiply(cubiecube_t* cubiecube, const cubiecube_t* b)
 {
     cornerMultiply(cubiecube, b);
     edgeMultiply(cubiecube, b);
@@ -25,7 +25,7 @@ typedef struct cubiecube cubiecube_t;
 struct facecube;
 
 // this CubieCube array represents the 6 basic cube moves
-cubiecube_t* get_moveCube(void);
+const cubiecube_t* get_moveCube(void);
 cubiecube_t* get_cubiecube(void);
 
 // n choose k
@@ -35,9 +35,9 @@ void rotateRight_corner(corner_t* arr, int l, int r);
 void rotateLeft_edge(edge_t* arr, int l, int r);
 void rotateRight_edge(edge_t* arr, int l, int r);
 struct facecube* toFaceCube(cubiecube_t* cubiecube);
-void cornerMultiply(cubiecube_t* cubiecube, cubiecube_t* b);
-void edgeMultiply(cubiecube_t* cubiecube, cubiecube_t* b);
-void multiply(cubiecube_t* cubiecube, cubiecube_t* b);
+void cornerMultiply(cubiecube_t* cubiecube, const cubiecube_t* b);
+void edgeMultiply(cubiecube_t* cubiecube, const cubiecube_t* b);
+void multiply(cubiecube_t* cubiecube, const cubiecube_t* b);
 void invCubieCube(cubiecube_t* cubiecube, cubiecube_t* c);
 short getTwist(cubiecube_t* cubiecube);
 void setTwist(cubiecube_t* cubiecube, short twist);
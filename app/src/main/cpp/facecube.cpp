@@ -27,8 +27,14 @@ facecube_t* get_facecube()
 
 facecube_t* get_facecube_fromstring(char* cubeString)
 {
-    int i;
     facecube_t* res = (facecube_t *) calloc(1, sizeof(facecube_t));
+    set_facecube_fromstring(res, cubeString);
+    return res;
+}
+
+void set_facecube_fromstring(facecube_t* res, const char* cubeString)
+{
+    int i;
     for (i = 0; i < 54; i++) {
         switch(cubeString[i]) {
             case 'U':
@@ -51,7 +57,6 @@ facecube_t* get_facecube_fromstring(char* cubeString)
                 break;
         }
     }
-    return res;
 }
 
 void to_String(facecube_t* facecube, char* res)
@@ -82,11 +87,17 @@ void to_String(facecube_t* facecube, char* res)
 }
 
 cubiecube_t* toCubieCube(facecube_t* facecube)
+{
+    cubiecube_t* ccRet = (cubiecube_t*) calloc(1, sizeof(cubiecube_t));
+    toCubieCubeInto(facecube, ccRet);
+    return ccRet;
+}
+
+void toCubieCubeInto(const facecube_t* facecube, struct cubiecube* ccRet)
 {
     int i, j;
     signed char ori;
     color_t col1, col2;
-    cubiecube_t* ccRet = (cubiecube_t*) calloc(1, sizeof(cubiecube_t));
     for (i = 0; i < 8; i++)
         ccRet->cp[i] = URF;// invalidate corners
     for (i = 0; i < 12; i++)
@@ -126,5 +137,4 @@ cubiecube_t* toCubieCube(facecube_t* facecube)
             }
         }
     }
-    return ccRet;
 }
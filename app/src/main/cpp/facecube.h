@@ -34,8 +34,12 @@ extern color_t edgeColor[12][2];
 
 facecube_t* get_facecube(void);
 facecube_t* get_facecube_fromstring(char* cubeString);
+// Same as get_facecube_fromstring, but fills res instead of allocating
+void set_facecube_fromstring(facecube_t* res, const char* cubeString);
 
 void to_String(facecube_t* facecube, char* res);
 struct cubiecube* toCubieCube(facecube_t* facecube);
+// Same as toCubieCube, but fills ccRet instead of allocating
+void toCubieCubeInto(const facecube_t* facecube, struct cubiecube* ccRet);
 
 #endif
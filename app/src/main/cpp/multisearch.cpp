@@ -0,0 +1,164 @@
+#include <condition_variable>
+#include <mutex>
+#include "multisearch.h"
+#include "parallel.h"
+#include "symmetry.h"
+
+// State shared by the searches of one solve_moves_multi call. Solutions are handed to the calling thread, which
+// reports them, so onSolution never runs on a search thread.
+typedef struct {
+    std::mutex lock;
+    std::condition_variable changed;
+    std::atomic<int> bound;
+    signed char best[SOLVE_MAX_MOVES];  // shortest solution so far, in moves of the original cube
+    int bestLength;                     // -1 while there is none
+    int reported;                       // length of the last solution passed to onSolution
+    int running;                        // searches still running
+} multisearch_t;
+
+typedef struct {
+    multisearch_t* shared;
+    const solve_options_t* options;
+    const char* cache_dir;
+    cubiecube_t cube;                   // cube the search runs on
+    int rotation;                       // see rotate_urf3
+    int inverse;
+    int status;
+} variant_t;
+
+// Turn a solution of the conjugated cube into a solution of the original cube
+static void map_back(const variant_t* v, const signed char* moves, int length, signed char* res)
+{
+    int i, m;
+    for (i = 0; i < length; i++) {
+        m = unrotate_move_urf3(moves[i], v->rotation);
+        if (v->inverse)// the inverse cube is solved by the reversed sequence of inverted moves
+            res[length - 1 - i] = (signed char) (3 * (m / 3) + 2 - m % 3);
+        else
+            res[i] = (signed char) m;
+    }
+}
+
+static void offer_solution(variant_t* v, const signed char* moves, int length)
+{
+    multisearch_t* shared = v->shared;
+    std::lock_guard<std::mutex> guard(shared->lock);
+    if (shared->bestLength < 0 || length < shared->bestLength) {
+        map_back(v, moves, length, shared->best);
+        shared->bestLength = length;
+        shared->changed.notify_all();
+    }
+}
+
+static void on_variant_solution(const signed char* moves, int length, void* arg)
+{
+    offer_solution((variant_t*) arg, moves, length);
+}
+
+// Runs on a pool thread (see parallel.h), in the thread-local workspace of solve_cubie, so nothing is allocated
+static void run_variant(variant_t* v)
+{
+    solve_options_t options = *v->options;
+    signed char moves[SOLVE_MAX_MOVES];
+    int length;
+
+    options.bound = &v->shared->bound;
+    options.onSolution = on_variant_solution;
+    options.arg = v;
+    v->status = solve_cubie(&v->cube, &options, v->cache_dir, moves, &length);
+    // without keepBest the solution is only returned, not reported
+    if (v->status == SOLVE_OK)
+        offer_solution(v, moves, length);
+
+    std::lock_guard<std::mutex> guard(v->shared->lock);
+    v->shared->running--;
+    v->shared->changed.notify_all();
+}
+
+static void run_variants(long begin, long end, void* arg)
+{
+    variant_t* variants = (variant_t*) arg;
+    for (long i = begin; i < end; i++)
+        run_variant(&variants[i]);
+}
+
+// Status of the whole solve if no search found a solution
+static int failure_status(const variant_t* variants, int count)
+{
+    int i, status = SOLVE_MAX_DEPTH;
+    for (i = 0; i < count; i++) {
+        if (variants[i].status == SOLVE_BAD_TABLES)
+            return SOLVE_BAD_TABLES;
+    }
+    for (i = 0; i < count; i++) {
+        if (variants[i].status == SOLVE_TIMEOUT)
+            return SOLVE_TIMEOUT;
+        if (variants[i].status == SOLVE_CANCELLED)
+            status = SOLVE_CANCELLED;
+    }
+    return status;
+}
+
+int solve_moves_multi(char* facelets, const solve_options_t* options, const char* cache_dir, signed char* moves,
+                      int* length)
+{
+    multisearch_t shared;
+    variant_t variants[MULTISEARCH_VARIANTS];
+    parallel_job_t job;
+    cubiecube_t cube, inverse;
+    int i, status, count = worker_count();
+
+    *length = 0;
+    if ((status = parse_cube(facelets, &cube)) != SOLVE_OK)
+        return status;
+    invCubieCube(&cube, &inverse);
+    // load the tables once, before the searches start
+    get_tables(cache_dir);
+
+    shared.bound = SOLVE_MAX_MOVES + 1;
+    shared.bestLength = -1;
+    shared.reported = SOLVE_MAX_MOVES + 1;
+    if (count > MULTISEARCH_VARIANTS)
+        count = MULTISEARCH_VARIANTS;
+    shared.running = count;
+
+    for (i = 0; i < count; i++) {
+        variant_t* v = &variants[i];
+        v->shared = &shared;
+        v->options = options;
+        v->cache_dir = cache_dir;
+        v->rotation = i % 3;
+        v->inverse = i / 3;
+        rotate_urf3(v->inverse ? &inverse : &cube, v->rotation, &v->cube);
+        v->status = SOLVE_MAX_DEPTH;
+    }
+    // one variant per pool thread; the calling thread only reports
+    parallel_start(&job, count, 1, run_variants, variants);
+
+    // report improvements on this thread until all searches are done
+    std::unique_lock<std::mutex> guard(shared.lock);
+    while (1) {
+        if (options->keepBest && options->onSolution != NULL && shared.bestLength >= 0
+            && shared.bestLength < shared.reported) {
+            signed char report[SOLVE_MAX_MOVES];
+            int reportLength = shared.bestLength;
+            memcpy(report, shared.best, reportLength);
+            shared.reported = reportLength;
+            guard.unlock();
+            options->onSolution(report, reportLength, options->arg);
+            guard.lock();
+        } else if (shared.running > 0) {
+            shared.changed.wait(guard);
+        } else {
+            break;
+        }
+    }
+    guard.unlock();
+    parallel_wait(&job);
+
+    if (shared.bestLength < 0)
+        return failure_status(variants, count);
+    memcpy(moves, shared.best, shared.bestLength);
+    *length = shared.bestLength;
+    return SOLVE_OK;
+}
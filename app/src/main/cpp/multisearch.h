@@ -0,0 +1,19 @@
+#ifndef MULTISEARCH_H
+#define MULTISEARCH_H
+
+#include "search.h"
+
+// Number of different searches solve_moves_multi can run: the cube rotated so that each of its three axes is the UD
+// axis, and the same for the inverse cube.
+#define MULTISEARCH_VARIANTS 6
+
+// Same as solve_moves, but runs the two-phase search on up to MULTISEARCH_VARIANTS conjugated versions of the cube at
+// the same time, one per thread of the worker pool (see parallel.h). The searches share one length bound, so a
+// solution found by one of them makes the others look for shorter ones only, and the shortest solution is mapped back
+// to the original cube.
+// With keepBest, onSolution is called on the calling thread with every solution that is shorter than the ones before.
+// options->bound must be NULL, the searches use their own.
+int solve_moves_multi(char* facelets, const solve_options_t* options, const char* cache_dir, signed char* moves,
+                      int* length);
+
+#endif
@@ -0,0 +1,122 @@
+#include <condition_variable>
+#include <deque>
+#include <mutex>
+#include <thread>
+#include "parallel.h"
+
+int worker_count(void)
+{
+    unsigned int n = std::thread::hardware_concurrency();
+    return n > 0 ? (int) n : 1;
+}
+
+// Jobs that still have blocks to hand out, oldest first
+typedef struct {
+    std::mutex lock;
+    std::condition_variable work;       // a job was queued
+    std::condition_variable finished;   // the last block of a job was processed
+    std::deque<parallel_job_t*> queue;
+} parallel_pool_t;
+
+// Hand out the next block of job, or return 0 if none is left. A job leaves the queue with its last block.
+static int take_block(parallel_pool_t* pool, parallel_job_t* job, long* begin, long* end)
+{
+    if (job->next >= job->count)
+        return 0;
+    *begin = job->next;
+    job->next += job->block_size;
+    *end = job->next < job->count ? job->next : job->count;
+    if (job->next >= job->count) {
+        for (auto it = pool->queue.begin(); it != pool->queue.end(); ++it)
+            if (*it == job) {
+                pool->queue.erase(it);
+                break;
+            }
+    }
+    return 1;
+}
+
+// The job must not be touched after its last block, its owner may return from parallel_wait at once
+static void finish_block(parallel_pool_t* pool, parallel_job_t* job)
+{
+    if (job->remaining.fetch_sub(1, std::memory_order_acq_rel) == 1) {
+        std::lock_guard<std::mutex> guard(pool->lock);
+        pool->finished.notify_all();
+    }
+}
+
+static void pool_worker(parallel_pool_t* pool)
+{
+    long begin, end;
+    std::unique_lock<std::mutex> guard(pool->lock);
+    while (1) {
+        while (pool->queue.empty())
+            pool->work.wait(guard);
+        parallel_job_t* job = pool->queue.front();
+        if (!take_block(pool, job, &begin, &end))
+            continue;
+        guard.unlock();
+        job->fn(begin, end, job->arg);
+        finish_block(pool, job);
+        guard.lock();
+    }
+}
+
+// The pool is never destroyed: its threads are detached and run until the process exits
+static parallel_pool_t* get_pool(void)
+{
+    static parallel_pool_t* pool = [] {
+        parallel_pool_t* p = new parallel_pool_t();
+        for (int i = 0; i < worker_count(); i++)
+            std::thread(pool_worker, p).detach();
+        return p;
+    }();
+    return pool;
+}
+
+void parallel_start(parallel_job_t* job, long count, long block_size, void (*fn)(long begin, long end, void* arg),
+                    void* arg)
+{
+    parallel_pool_t* pool = get_pool();
+
+    job->next = 0;
+    job->count = count;
+    job->block_size = block_size;
+    job->fn = fn;
+    job->arg = arg;
+    job->remaining.store((count + block_size - 1) / block_size, std::memory_order_relaxed);
+    if (count <= 0)
+        return;
+
+    std::lock_guard<std::mutex> guard(pool->lock);
+    pool->queue.push_back(job);
+    pool->work.notify_all();
+}
+
+void parallel_wait(parallel_job_t* job)
+{
+    parallel_pool_t* pool = get_pool();
+    std::unique_lock<std::mutex> guard(pool->lock);
+    while (job->remaining.load(std::memory_order_acquire) > 0)
+        pool->finished.wait(guard);
+}
+
+void parallel_for(long count, long block_size, void (*fn)(long begin, long end, void* arg), void* arg)
+{
+    parallel_pool_t* pool = get_pool();
+    parallel_job_t job;
+    long begin, end;
+
+    parallel_start(&job, count, block_size, fn, arg);
+    // the calling thread works on its own job too, so parallel_for may also be called from a pool thread
+    while (1) {
+        {
+            std::lock_guard<std::mutex> guard(pool->lock);
+            if (!take_block(pool, &job, &begin, &end))
+                break;
+        }
+        fn(begin, end, arg);
+        finish_block(pool, &job);
+    }
+    parallel_wait(&job);
+}
@@ -0,0 +1,33 @@
+#ifndef PARALLEL_H
+#define PARALLEL_H
+
+#include <atomic>
+
+// Number of worker threads used for parallel work. This is the number of cores available to the process.
+int worker_count(void);
+
+// Work handed to the worker pool. The pool threads are started on first use and live as long as the process, so
+// thread-local state (like the solver workspace of search.cpp) is reused from one job to the next.
+typedef struct {
+    long next;                      // first item not handed out yet; guarded by the pool lock
+    long count;
+    long block_size;
+    void (*fn)(long begin, long end, void* arg);
+    void* arg;
+    std::atomic<long> remaining;    // blocks not finished yet
+} parallel_job_t;
+
+// Split [0, count) into blocks of block_size items and process them on worker_count() threads (the calling thread is
+// one of them). Blocks are handed out dynamically, so uneven blocks do not stall the other workers. fn is called with
+// the bounds of a block and arg. Returns when all blocks are processed.
+void parallel_for(long count, long block_size, void (*fn)(long begin, long end, void* arg), void* arg);
+
+// Same split as parallel_for, but the blocks only run on the pool threads and the call returns at once, so the calling
+// thread is free for other work. job must stay valid until parallel_wait returns.
+void parallel_start(parallel_job_t* job, long count, long block_size, void (*fn)(long begin, long end, void* arg),
+                    void* arg);
+
+// Wait until all blocks of a job started by parallel_start are processed
+void parallel_wait(parallel_job_t* job);
+
+#endif
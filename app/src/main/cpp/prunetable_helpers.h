@@ -14,8 +14,6 @@
 #endif
 
 int make_dir(const char *cache_dir);
-int check_cached_table(const char* name, void* ptr, int len, const char *cache_dir);
-void dump_to_file(void* ptr, int len, const char* name, const char *cache_dir);
-void read_from_file(void* ptr, int len, const char* name);
+char * join_path(const char *dir, const char *filename);
 
 #endif
@@ -1,10 +1,12 @@
 #include <time.h>
 #include <stdlib.h>
 #include <stdio.h>
+#include <string.h>
 #include "search.h"
 #include "color.h"
 #include "facecube.h"
 #include "coordcube.h"
+#include "solutioncache.h"
 
 #define MIN(a, b) (((a)<(b))?(a):(b))
 #define MAX(a, b) (((a)>(b))?(a):(b))
@@ -56,25 +58,78 @@ char* solutionToString(search_t* search, int length, int depthPhase1)
 }
 
 
-char* solution(char* facelets, int maxDepth, long timeOut, int useSeparator, const char* cache_dir)
+// Thread-local workspace of solution() and solve_moves()
+static thread_local solve_workspace_t thread_workspace;
+
+// The deadline and the cancel flag are checked after this many phase 1 nodes (a power of 2)
+#define STOP_CHECK_NODES 1024
+
+static long long monotonic_ms(void)
 {
-    search_t* search = (search_t*) calloc(1, sizeof(search_t));
-    facecube_t* fc;
-    cubiecube_t* cc;
-    coordcube_t* c;
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1000LL + ts.tv_nsec / 1000000;
+}
 
-    int s, i;
-    int mv, n;
-    int busy;
-    int depthPhase1;
-    time_t tStart;
+// SOLVE_OK while the search may go on, otherwise the reason to stop
+static int stop_reason(const solve_options_t* options, long long deadline)
+{
+    if (options->cancel != NULL && options->cancel->load(std::memory_order_relaxed))
+        return SOLVE_CANCELLED;
+    if (monotonic_ms() > deadline)
+        return SOLVE_TIMEOUT;
+    // without keepBest the first solution of any search sharing the bound ends all of them
+    if (!options->keepBest && options->bound != NULL
+        && options->bound->load(std::memory_order_relaxed) <= SOLVE_MAX_MOVES)
+        return SOLVE_CANCELLED;
+    return SOLVE_OK;
+}
+
+// Leave the search with status. If a solution was found before, it is the result and moves back into search->ax/po.
+static int finish_search(solve_workspace_t* workspace, int status, int* length, int* depthPhase1Out)
+{
+    if (workspace->bestLength < 0)
+        return status;
+    memcpy(workspace->search.ax, workspace->bestAx, sizeof(workspace->bestAx));
+    memcpy(workspace->search.po, workspace->bestPo, sizeof(workspace->bestPo));
+    *length = workspace->bestLength;
+    *depthPhase1Out = workspace->bestDepthPhase1;
+    return SOLVE_OK;
+}
+
+// Lower the shared bound to length unless another search got below it already
+static void lower_bound(const solve_options_t* options, int length)
+{
+    int current;
+    if (options->bound == NULL)
+        return;
+    current = options->bound->load(std::memory_order_relaxed);
+    while (length < current && !options->bound->compare_exchange_weak(current, length, std::memory_order_relaxed))
+        ;
+}
+
+// Longest solution the search may still accept
+static int depth_limit(const solve_options_t* options, int maxDepth)
+{
+    if (options->bound == NULL)
+        return maxDepth;
+    return MIN(maxDepth, options->bound->load(std::memory_order_relaxed) - 1);
+}
+
+// Every solution passes through the H-subgroup, so none is shorter than the exact phase 1 distance of the cube. Once
+// the depth limit is below it, the search cannot improve the bound any more.
+static int bound_proven(const search_t* search, int maxDepth)
+{
+    return maxDepth < search->distPhase1[0];
+}
+
+// Check the facelets and set up workspace->cc from them. Returns SOLVE_OK or the reason the input is rejected.
+static int parse_facelets(solve_workspace_t* workspace, char* facelets)
+{
+    int i;
     // +++++++++++++++++++++check for wrong input +++++++++++++++++++++++++++++
     int count[6] = {0};
 
-    if (PRUNING_INITED == 0) {
-        initPruning(cache_dir);
-    }
-
     for (i = 0; i < 54; i++)
         switch(facelets[i]) {
             case 'U':
@@ -98,21 +153,43 @@ char* solution(char* facelets, int maxDepth, long timeOut, int useSeparator, con
         }
 
     for (i = 0; i < 6; i++)
-        if (count[i] != 9) {
-            free(search);
-            return NULL;
-        }
+        if (count[i] != 9)
+            return SOLVE_BAD_FACELETS;
+
+    set_facecube_fromstring(&workspace->fc, facelets);
+    toCubieCubeInto(&workspace->fc, &workspace->cc);
+    if (verify(&workspace->cc) != 0)
+        return SOLVE_BAD_CUBE;
+    return SOLVE_OK;
+}
 
-    fc = get_facecube_fromstring(facelets);
-    cc = toCubieCube(fc);
-    if ((s = verify(cc)) != 0) {
-        free(search);
-        return NULL;
-    }
+// Run the two-phase search for the cube in workspace->cc. On SOLVE_OK the solution is the first *length moves in
+// search->ax/po and *depthPhase1 moves of it belong to phase 1. Nothing is allocated, so every exit path is free to
+// return.
+static int run_search(solve_workspace_t* workspace, const solve_options_t* options, const char* cache_dir,
+                      int* length, int* depthPhase1Out)
+{
+    search_t* search = &workspace->search;
+    cubiecube_t* cc = &workspace->cc;
+    coordcube_t* c = &workspace->c;
+
+    int s, i;
+    int mv, n;
+    int busy;
+    int depthPhase1;
+    int maxDepth = depth_limit(options, options->maxDepth);
+    int status;
+    unsigned int nodes = 0;
+    long long deadline;
+
+    const coordtables_t* t = get_tables(cache_dir);
 
     // +++++++++++++++++++++++ initialization +++++++++++++++++++++++++++++++++
-    c = get_coordcube(cc);
+    set_coordcube(c, cc);
 
+    memset(search, 0, sizeof(search_t));
+    workspace->bestLength = -1;
+    search->tables = t;
     search->po[0] = 0;
     search->ax[0] = 0;
     search->flip[0] = c->flip;
@@ -123,6 +200,9 @@ char* solution(char* facelets, int maxDepth, long timeOut, int useSeparator, con
     search->FRtoBR[0] = c->FRtoBR;
     search->URtoUL[0] = c->URtoUL;
     search->UBtoDF[0] = c->UBtoDF;
+    search->distPhase1[0] = getPhase1Distance(t, c->flip, c->FRtoBR / 24, c->twist);
+    if (search->distPhase1[0] < 0)
+        return SOLVE_BAD_TABLES;
 
     search->minDistPhase1[1] = 1;// else failure for depth=1, n=0
     mv = 0;
@@ -130,7 +210,7 @@ char* solution(char* facelets, int maxDepth, long timeOut, int useSeparator, con
     busy = 0;
     depthPhase1 = 1;
 
-    tStart = time(NULL);
+    deadline = monotonic_ms() + options->timeOut;
 
     // +++++++++++++++++++ Main loop ++++++++++++++++++++++++++++++++++++++++++
     do {
@@ -146,12 +226,13 @@ char* solution(char* facelets, int maxDepth, long timeOut, int useSeparator, con
                 do {// increment axis
                     if (++search->ax[n] > 5) {
 
-                        if (time(NULL) - tStart > timeOut)
-                            return NULL;
+                        if ((status = stop_reason(options, deadline)) != SOLVE_OK)
+                            return finish_search(workspace, status, length, depthPhase1Out);
 
                         if (n == 0) {
-                            if (depthPhase1 >= maxDepth)
-                                return NULL;
+                            maxDepth = depth_limit(options, maxDepth);
+                            if (depthPhase1 >= maxDepth || bound_proven(search, maxDepth))
+                                return finish_search(workspace, SOLVE_MAX_DEPTH, length, depthPhase1Out);
                             else {
                                 depthPhase1++;
                                 search->ax[n] = 0;
@@ -176,14 +257,22 @@ char* solution(char* facelets, int maxDepth, long timeOut, int useSeparator, con
 
         // +++++++++++++ compute new coordinates and new minDistPhase1 ++++++++++
         // if minDistPhase1 =0, the H subgroup is reached
+        if ((++nodes & (STOP_CHECK_NODES - 1)) == 0) {
+            if ((status = stop_reason(options, deadline)) != SOLVE_OK)
+                return finish_search(workspace, status, length, depthPhase1Out);
+            maxDepth = depth_limit(options, maxDepth);
+            if (bound_proven(search, maxDepth))
+                return finish_search(workspace, SOLVE_MAX_DEPTH, length, depthPhase1Out);
+        }
+
         mv = 3 * search->ax[n] + search->po[n] - 1;
-        search->flip[n + 1] = flipMove[search->flip[n]][mv];
-        search->twist[n + 1] = twistMove[search->twist[n]][mv];
-        search->slice[n + 1] = FRtoBR_Move[search->slice[n] * 24][mv] / 24;
-        search->minDistPhase1[n + 1] = MAX(
-                getPruning(Slice_Flip_Prun, N_SLICE1 * search->flip[n + 1] + search->slice[n + 1]),
-                getPruning(Slice_Twist_Prun, N_SLICE1 * search->twist[n + 1] + search->slice[n + 1])
-        );
+        search->nodesPhase1++;
+        search->flip[n + 1] = t->flipMove[search->flip[n]][mv];
+        search->twist[n + 1] = t->twistMove[search->twist[n]][mv];
+        search->slice[n + 1] = t->FRtoBR_Move[search->slice[n] * 24][mv] / 24;
+        search->distPhase1[n + 1] = nextPhase1Distance(t, search->distPhase1[n],
+                search->flip[n + 1], search->slice[n + 1], search->twist[n + 1]);
+        search->minDistPhase1[n + 1] = search->distPhase1[n + 1];
         // ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
         // System.out.format("%d %d\n", n, depthPhase1);
         if (search->minDistPhase1[n + 1] == 0 && n >= depthPhase1 - 5) {
@@ -191,17 +280,27 @@ char* solution(char* facelets, int maxDepth, long timeOut, int useSeparator, con
             if (n == depthPhase1 - 1 && (s = totalDepth(search, depthPhase1, maxDepth)) >= 0) {
                 if (s == depthPhase1
                     || (search->ax[depthPhase1 - 1] != search->ax[depthPhase1] && search->ax[depthPhase1 - 1] != search->ax[depthPhase1] + 3)) {
-                    char* res;
-                    free((void*) fc);
-                    free((void*) cc);
-                    free((void*) c);
-                    if (useSeparator) {
-                        res = solutionToString(search, s, depthPhase1);
-                    } else {
-                        res = solutionToString(search, s, -1);
+                    lower_bound(options, s);
+                    if (!options->keepBest) {
+                        *length = s;
+                        *depthPhase1Out = depthPhase1;
+                        return SOLVE_OK;
+                    }
+                    // remember the solution and go on looking for a shorter one
+                    memcpy(workspace->bestAx, search->ax, sizeof(workspace->bestAx));
+                    memcpy(workspace->bestPo, search->po, sizeof(workspace->bestPo));
+                    workspace->bestLength = s;
+                    workspace->bestDepthPhase1 = depthPhase1;
+                    maxDepth = depth_limit(options, s - 1);
+                    if (options->onSolution != NULL) {
+                        signed char moves[SOLVE_MAX_MOVES];
+                        for (i = 0; i < s; i++)
+                            moves[i] = (signed char) (3 * search->ax[i] + search->po[i] - 1);
+                        options->onSolution(moves, s, options->arg);
                     }
-                    free((void*) search);
-                    return res;
+                    // no shorter solution exists, so do not spend the rest of the budget
+                    if (bound_proven(search, maxDepth))
+                        return finish_search(workspace, SOLVE_OK, length, depthPhase1Out);
                 }
             }
 
@@ -209,8 +308,85 @@ char* solution(char* facelets, int maxDepth, long timeOut, int useSeparator, con
     } while (1);
 }
 
+char* solution(char* facelets, int maxDepth, long timeOut, int useSeparator, const char* cache_dir)
+{
+    solve_options_t options = { maxDepth, timeOut, NULL, 0, NULL, NULL, NULL };
+    search_t* search = &thread_workspace.search;
+    signed char moves[SOLVE_MAX_MOVES];
+    int length, depthPhase1, i;
+
+    if (parse_facelets(&thread_workspace, facelets) != SOLVE_OK)
+        return NULL;
+    if (solution_cache_get(&thread_workspace.cc, maxDepth, moves, &length)) {
+        // the phases of a cached solution are not known, so there is no separator
+        for (i = 0; i < length; i++) {
+            search->ax[i] = moves[i] / 3;
+            search->po[i] = moves[i] % 3 + 1;
+        }
+        return solutionToString(search, length, -1);
+    }
+    if (run_search(&thread_workspace, &options, cache_dir, &length, &depthPhase1) != SOLVE_OK)
+        return NULL;
+    for (i = 0; i < length; i++)
+        moves[i] = (signed char) (3 * search->ax[i] + search->po[i] - 1);
+    solution_cache_put(&thread_workspace.cc, moves, length);
+    return solutionToString(search, length, useSeparator ? depthPhase1 : -1);
+}
+
+// Search for the cube in workspace->cc and store the solution as move indices
+static int search_moves(solve_workspace_t* workspace, const solve_options_t* options, const char* cache_dir,
+                        signed char* moves, int* length)
+{
+    int status, depthPhase1, i;
+
+    status = run_search(workspace, options, cache_dir, length, &depthPhase1);
+    if (status == SOLVE_OK)
+        for (i = 0; i < *length; i++)
+            moves[i] = (signed char) (3 * workspace->search.ax[i] + workspace->search.po[i] - 1);
+    return status;
+}
+
+int solve_moves_in(solve_workspace_t* workspace, char* facelets, const solve_options_t* options, const char* cache_dir,
+                   signed char* moves, int* length)
+{
+    int status;
+
+    *length = 0;
+    if ((status = parse_facelets(workspace, facelets)) != SOLVE_OK)
+        return status;
+    return search_moves(workspace, options, cache_dir, moves, length);
+}
+
+int solve_cubie_in(solve_workspace_t* workspace, const cubiecube_t* cube, const solve_options_t* options,
+                   const char* cache_dir, signed char* moves, int* length)
+{
+    *length = 0;
+    workspace->cc = *cube;
+    return search_moves(workspace, options, cache_dir, moves, length);
+}
+
+int parse_cube(char* facelets, cubiecube_t* cube)
+{
+    int status = parse_facelets(&thread_workspace, facelets);
+    if (status == SOLVE_OK)
+        *cube = thread_workspace.cc;
+    return status;
+}
+
+int solve_moves(char* facelets, const solve_options_t* options, const char* cache_dir, signed char* moves, int* length)
+{
+    return solve_moves_in(&thread_workspace, facelets, options, cache_dir, moves, length);
+}
+
+int solve_cubie(const cubiecube_t* cube, const solve_options_t* options, const char* cache_dir, signed char* moves,
+                int* length)
+{
+    return solve_cubie_in(&thread_workspace, cube, options, cache_dir, moves, length);
+}
+
 int totalDepth(search_t* search, int depthPhase1, int maxDepth)
 {
+    const coordtables_t* t = search->tables;
     int mv = 0, d1 = 0, d2 = 0, i;
     int maxDepthPhase2 = MIN(10, maxDepth - depthPhase1);// Allow only max 10 moves in phase2
     int depthPhase2;
@@ -219,23 +395,23 @@ int totalDepth(search_t* search, int depthPhase1, int maxDepth)
     for (i = 0; i < depthPhase1; i++) {
         mv = 3 * search->ax[i] + search->po[i] - 1;
         // System.out.format("%d %d %d %d\n", i, mv, ax[i], po[i]);
-        search->URFtoDLF[i + 1] = URFtoDLF_Move[search->URFtoDLF[i]][mv];
-        search->FRtoBR[i + 1] = FRtoBR_Move[search->FRtoBR[i]][mv];
-        search->parity[i + 1] = parityMove[search->parity[i]][mv];
+        search->URFtoDLF[i + 1] = t->URFtoDLF_Move[search->URFtoDLF[i]][mv];
+        search->FRtoBR[i + 1] = t->FRtoBR_Move[search->FRtoBR[i]][mv];
+        search->parity[i + 1] = t->parityMove[search->parity[i]][mv];
     }
 
-    if ((d1 = getPruning(Slice_URFtoDLF_Parity_Prun,
+    if ((d1 = getPruning(t->Slice_URFtoDLF_Parity_Prun,
                          (N_SLICE2 * search->URFtoDLF[depthPhase1] + search->FRtoBR[depthPhase1]) * 2 + search->parity[depthPhase1])) > maxDepthPhase2)
         return -1;
 
     for (i = 0; i < depthPhase1; i++) {
         mv = 3 * search->ax[i] + search->po[i] - 1;
-        search->URtoUL[i + 1] = URtoUL_Move[search->URtoUL[i]][mv];
-        search->UBtoDF[i + 1] = UBtoDF_Move[search->UBtoDF[i]][mv];
+        search->URtoUL[i + 1] = t->URtoUL_Move[search->URtoUL[i]][mv];
+        search->UBtoDF[i + 1] = t->UBtoDF_Move[search->UBtoDF[i]][mv];
     }
-    search->URtoDF[depthPhase1] = MergeURtoULandUBtoDF[search->URtoUL[depthPhase1]][search->UBtoDF[depthPhase1]];
+    search->URtoDF[depthPhase1] = t->MergeURtoULandUBtoDF[search->URtoUL[depthPhase1]][search->UBtoDF[depthPhase1]];
 
-    if ((d2 = getPruning(Slice_URtoDF_Parity_Prun,
+    if ((d2 = getPruning(t->Slice_URtoDF_Parity_Prun,
                          (N_SLICE2 * search->URtoDF[depthPhase1] + search->FRtoBR[depthPhase1]) * 2 + search->parity[depthPhase1])) > maxDepthPhase2)
         return -1;
 
@@ -295,15 +471,31 @@ int totalDepth(search_t* search, int depthPhase1, int maxDepth)
         } while (busy);
         // +++++++++++++ compute new coordinates and new minDist ++++++++++
         mv = 3 * search->ax[n] + search->po[n] - 1;
-
-        search->URFtoDLF[n + 1] = URFtoDLF_Move[search->URFtoDLF[n]][mv];
-        search->FRtoBR[n + 1] = FRtoBR_Move[search->FRtoBR[n]][mv];
-        search->parity[n + 1] = parityMove[search->parity[n]][mv];
-        search->URtoDF[n + 1] = URtoDF_Move[search->URtoDF[n]][mv];
-
-        search->minDistPhase2[n + 1] = MAX(getPruning(Slice_URtoDF_Parity_Prun, (N_SLICE2
+        search->nodesPhase2++;
+
+#ifdef PACKED_PHASE2_TABLES
+        {
+            const phase2_moves_t* p2 = t->phase2Moves;
+            int k = phase2MoveIndex[mv];
+            int sliceParity = p2->sliceParity[2 * search->FRtoBR[n] + search->parity[n]].next[k];
+            search->URFtoDLF[n + 1] = p2->URFtoDLF[search->URFtoDLF[n]].next[k];
+            search->URtoDF[n + 1] = p2->URtoDF[search->URtoDF[n]].next[k];
+            search->FRtoBR[n + 1] = sliceParity >> 1;
+            search->parity[n + 1] = sliceParity & 1;
+            // the successors of the new node are read next, unless it is pruned
+            __builtin_prefetch(&p2->URFtoDLF[search->URFtoDLF[n + 1]]);
+            __builtin_prefetch(&p2->URtoDF[search->URtoDF[n + 1]]);
+        }
+#else
+        search->URFtoDLF[n + 1] = t->URFtoDLF_Move[search->URFtoDLF[n]][mv];
+        search->FRtoBR[n + 1] = t->FRtoBR_Move[search->FRtoBR[n]][mv];
+        search->parity[n + 1] = t->parityMove[search->parity[n]][mv];
+        search->URtoDF[n + 1] = t->URtoDF_Move[search->URtoDF[n]][mv];
+#endif
+
+        search->minDistPhase2[n + 1] = MAX(getPruning(t->Slice_URtoDF_Parity_Prun, (N_SLICE2
                                                                                  * search->URtoDF[n + 1] + search->FRtoBR[n + 1])
-                                                                                * 2 + search->parity[n + 1]), getPruning(Slice_URFtoDLF_Parity_Prun, (N_SLICE2
+                                                                                * 2 + search->parity[n + 1]), getPruning(t->Slice_URFtoDLF_Parity_Prun, (N_SLICE2
                                                                                                                                                       * search->URFtoDLF[n + 1] + search->FRtoBR[n + 1])
                                                                                                                                                      * 2 + search->parity[n + 1]));
         // ++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
@@ -11,13 +11,17 @@
 
 #include <search.h>
 #include <stdlib.h>
+#include <atomic>
 #include "facecube.h"
+#include "cubiecube.h"
 #include "coordcube.h"
 
 #define MIN(a, b) (((a)<(b))?(a):(b))
 #define MAX(a, b) (((a)>(b))?(a):(b))
 
+// Per-call state of one search. The tables are shared and read-only, so several searches can run at the same time.
 typedef struct {
+    const coordtables_t* tables;
     int ax[32];       // The axis of the move
     int po[32];       // The power of the move
     int flip[32];     // phase1 coordinates
@@ -28,14 +32,78 @@ typedef struct {
     int FRtoBR[32];
     int URtoUL[32];
     int UBtoDF[32];
+    int distPhase1[32];  // exact distance to the H-subgroup
     int minDistPhase1[32];
     int minDistPhase2[32];
     int URtoDF[32];
+    unsigned long nodesPhase1;  // nodes expanded by this search, for benchmarks
+    unsigned long nodesPhase2;
 } search_t;
 
+// Everything one solve needs besides the shared tables. A solve that runs in a workspace does not allocate, so a
+// workspace can be reused for any number of solves (but only by one solve at a time).
+typedef struct {
+    search_t search;
+    facecube_t fc;
+    cubiecube_t cc;
+    coordcube_t c;
+    // best solution found so far when solve_options_t.keepBest is set
+    int bestAx[32];
+    int bestPo[32];
+    int bestLength;
+    int bestDepthPhase1;
+} solve_workspace_t;
+
+typedef struct {
+    int maxDepth;                       // longest solution to accept
+    long timeOut;                       // milliseconds on the monotonic clock, counted from the start of the solve
+    const std::atomic<int>* cancel;     // the search stops once *cancel != 0; may be NULL
+    // 0: return the first solution found. Otherwise keep looking for shorter solutions until the search space is
+    // exhausted, the solution is as short as the phase 1 distance of the cube (no solution is shorter), the deadline
+    // passes or the solve is cancelled, and return the shortest one found.
+    int keepBest;
+    // With keepBest, called on the solving thread with every solution that is shorter than the ones before (moves
+    // as in solve_moves). May be NULL.
+    void (*onSolution)(const signed char* moves, int length, void* arg);
+    void* arg;
+    // Length bound shared by searches that run at the same time, or NULL. Holds the length of the shortest solution
+    // any of them found (start it above SOLVE_MAX_MOVES); a search only looks for solutions shorter than that. Without
+    // keepBest the first solution found by any of them stops all.
+    std::atomic<int>* bound;
+} solve_options_t;
+
+// Status codes of solve_moves
+#define SOLVE_OK            0
+#define SOLVE_BAD_FACELETS  1  // not exactly 9 facelets of every color
+#define SOLVE_BAD_CUBE      2  // the facelets do not describe a reachable cube
+#define SOLVE_TIMEOUT       3
+#define SOLVE_MAX_DEPTH     4  // no solution with at most maxDepth moves
+#define SOLVE_CANCELLED     5
+#define SOLVE_BAD_TABLES    6  // the pruning tables are damaged (delete the table cache to rebuild them)
+
+// Longest solution solve_moves can produce
+#define SOLVE_MAX_MOVES     31
+
 // Объявления функций
 char* solutionToString(search_t* search, int length, int depthPhase1);
+// timeOut is in milliseconds. Solutions are cached (see solutioncache.h); a cached solution has no separator.
 char* solution(char* facelets, int maxDepth, long timeOut, int useSeparator, const char* cache_dir);
+// Same search as solution, but the solution is stored in moves as move indices 3 * axis + power - 1 (0..17, axes in
+// URFDLB order) and its length in *length. moves must hold SOLVE_MAX_MOVES entries. Returns one of the SOLVE_ codes;
+// a solve that timed out or was cancelled after finding a solution returns SOLVE_OK with the best solution found.
+// Runs in a thread-local workspace, so it does not allocate after the first call on a thread.
+int solve_moves(char* facelets, const solve_options_t* options, const char* cache_dir, signed char* moves, int* length);
+// Same as solve_moves, but runs in the workspace provided by the caller
+int solve_moves_in(solve_workspace_t* workspace, char* facelets, const solve_options_t* options, const char* cache_dir,
+                   signed char* moves, int* length);
+// Same as solve_moves_in for a cube given on the cubie level. The cube must be valid (see parse_cube).
+int solve_cubie_in(solve_workspace_t* workspace, const cubiecube_t* cube, const solve_options_t* options,
+                   const char* cache_dir, signed char* moves, int* length);
+// Same as solve_cubie_in, but runs in the thread-local workspace of solve_moves
+int solve_cubie(const cubiecube_t* cube, const solve_options_t* options, const char* cache_dir, signed char* moves,
+                int* length);
+// Check the facelets and convert them to a cubie cube. Returns SOLVE_OK, SOLVE_BAD_FACELETS or SOLVE_BAD_CUBE.
+int parse_cube(char* facelets, cubiecube_t* cube);
 int totalDepth(search_t* search, int depthPhase1, int maxDepth);
 void patternize(char* facelets, char* pattern, char* patternized);
 #endif // _INC_SEARCH
@@ -0,0 +1,325 @@
+#include <stdio.h>
+#include <stdint.h>
+#include <string.h>
+#include <errno.h>
+#include <mutex>
+#include <unordered_map>
+#include <zlib.h>
+#include "cubestate.h"
+#include "prunetable_helpers.h"
+#include "search.h"
+#include "solutioncache.h"
+#include "symmetry.h"
+
+struct cubestate_hasher {
+    size_t operator()(const cubestate_t& s) const
+    {
+        return (size_t) cubestate_hash(s);
+    }
+};
+
+struct cubestate_equal_to {
+    bool operator()(const cubestate_t& a, const cubestate_t& b) const
+    {
+        return cubestate_equal(a, b) != 0;
+    }
+};
+
+typedef struct {
+    cubestate_t key;
+    signed char moves[SOLVE_MAX_MOVES];   // solution of the canonical cube
+    int length;
+    int prev;                             // neighbours in the LRU list, -1 at the ends
+    int next;
+} cache_entry_t;
+
+typedef struct {
+    std::mutex lock;
+    cache_entry_t entries[SOLUTION_CACHE_CAPACITY];
+    std::unordered_map<cubestate_t, int, cubestate_hasher, cubestate_equal_to> index;
+    int size;
+    int head;                             // most recently used entry
+    int tail;                             // least recently used entry
+    int dirty;                            // changed since the last load or save
+    long hits;
+    long misses;
+} solution_cache_t;
+
+static solution_cache_t cache = { {}, {}, {}, 0, -1, -1, 0, 0, 0 };
+
+// Entry of the cache file
+typedef struct {
+    uint64_t corners;
+    uint64_t edges;
+    uint8_t length;
+    int8_t moves[SOLVE_MAX_MOVES];
+} cache_record_t;
+
+typedef struct {
+    uint32_t magic;
+    uint32_t version;
+    uint32_t count;
+    uint32_t crc;       // CRC32 of the records
+} cache_header_t;
+
+static int key_less(const cubestate_t* a, const cubestate_t* b)
+{
+    return a->corners < b->corners || (a->corners == b->corners && a->edges < b->edges);
+}
+
+// Smallest key of the conjugates S * cube * S^-1 and the symmetry S that gives it
+static int canonical_key(const cubiecube_t* cube, cubestate_t* key)
+{
+    cubiecube_t cc;
+    cubestate_t k;
+    int s, best = 0;
+
+    *key = cubestate_pack(cube);
+    for (s = 1; s < N_SYM; s++) {
+        conjugate_sym(cube, s, &cc);
+        k = cubestate_pack(&cc);
+        if (key_less(&k, key)) {
+            *key = k;
+            best = s;
+        }
+    }
+    return best;
+}
+
+static void unlink_entry(int i)
+{
+    cache_entry_t* e = &cache.entries[i];
+    if (e->prev >= 0)
+        cache.entries[e->prev].next = e->next;
+    else
+        cache.head = e->next;
+    if (e->next >= 0)
+        cache.entries[e->next].prev = e->prev;
+    else
+        cache.tail = e->prev;
+}
+
+static void link_front(int i)
+{
+    cache_entry_t* e = &cache.entries[i];
+    e->prev = -1;
+    e->next = cache.head;
+    if (cache.head >= 0)
+        cache.entries[cache.head].prev = i;
+    cache.head = i;
+    if (cache.tail < 0)
+        cache.tail = i;
+}
+
+static void link_back(int i)
+{
+    cache_entry_t* e = &cache.entries[i];
+    e->next = -1;
+    e->prev = cache.tail;
+    if (cache.tail >= 0)
+        cache.entries[cache.tail].next = i;
+    cache.tail = i;
+    if (cache.head < 0)
+        cache.head = i;
+}
+
+// Slot for a new key: a free one, or the least recently used entry, which is dropped
+static int take_slot(const cubestate_t* key)
+{
+    int i;
+    if (cache.size < SOLUTION_CACHE_CAPACITY) {
+        i = cache.size++;
+    } else {
+        i = cache.tail;
+        unlink_entry(i);
+        cache.index.erase(cache.entries[i].key);
+    }
+    cache.entries[i].key = *key;
+    cache.index[*key] = i;
+    return i;
+}
+
+int solution_cache_get(const cubiecube_t* cube, int maxDepth, signed char* moves, int* length)
+{
+    cubestate_t key;
+    int s = canonical_key(cube, &key), inv = get_invSym(s), i;
+    std::lock_guard<std::mutex> guard(cache.lock);
+    auto it = cache.index.find(key);
+
+    if (it == cache.index.end() || cache.entries[it->second].length > maxDepth) {
+        cache.misses++;
+        return 0;
+    }
+    cache_entry_t* e = &cache.entries[it->second];
+    unlink_entry(it->second);
+    link_front(it->second);
+    // the entry solves S * cube * S^-1, conjugating its moves with S^-1 gives a solution of cube
+    for (i = 0; i < e->length; i++)
+        moves[i] = (signed char) conjugate_move_sym(e->moves[i], inv);
+    *length = e->length;
+    cache.hits++;
+    return 1;
+}
+
+void solution_cache_put(const cubiecube_t* cube, const signed char* moves, int length)
+{
+    cubestate_t key;
+    int s = canonical_key(cube, &key), i;
+    std::lock_guard<std::mutex> guard(cache.lock);
+    auto it = cache.index.find(key);
+
+    if (it != cache.index.end()) {
+        i = it->second;
+        unlink_entry(i);
+        link_front(i);
+        if (cache.entries[i].length <= length)
+            return;
+    } else {
+        i = take_slot(&key);
+        link_front(i);
+    }
+    cache_entry_t* e = &cache.entries[i];
+    for (int j = 0; j < length; j++)
+        e->moves[j] = (signed char) conjugate_move_sym(moves[j], s);
+    e->length = length;
+    cache.dirty = 1;
+}
+
+static int record_valid(const cache_record_t* r)
+{
+    int i;
+    if (r->length > SOLVE_MAX_MOVES)
+        return 0;
+    for (i = 0; i < r->length; i++)
+        if (r->moves[i] < 0 || r->moves[i] >= N_MOVE)
+            return 0;
+    return 1;
+}
+
+int solution_cache_load(const char* cache_dir)
+{
+    char* fname = join_path(cache_dir, SOLUTION_CACHE_FILE);
+    cache_header_t header;
+    cache_record_t* records = NULL;
+    FILE* f;
+    uint32_t i;
+    int res = -1;
+
+    if (fname == NULL)
+        return -1;
+    f = fopen(fname, "rb");
+    free(fname);
+    if (f == NULL)
+        return -1;
+    if (fread(&header, sizeof(header), 1, f) == 1 && header.magic == SOLUTION_CACHE_MAGIC
+        && header.version == SOLUTION_CACHE_VERSION && header.count <= SOLUTION_CACHE_CAPACITY) {
+        records = (cache_record_t*) calloc(header.count + 1, sizeof(cache_record_t));
+        if (records != NULL && fread(records, sizeof(cache_record_t), header.count, f) == header.count
+            && (uint32_t) crc32(0L, (const Bytef*) records, (uInt) (header.count * sizeof(cache_record_t)))
+               == header.crc)
+            res = 0;
+    }
+    fclose(f);
+
+    if (res == 0) {
+        std::lock_guard<std::mutex> guard(cache.lock);
+        // the records are stored most recently used first; they go behind the entries already cached
+        for (i = 0; i < header.count && cache.size < SOLUTION_CACHE_CAPACITY; i++) {
+            cubestate_t key = { records[i].corners, records[i].edges };
+            if (!record_valid(&records[i]) || cache.index.count(key) != 0)
+                continue;
+            int slot = take_slot(&key);
+            memcpy(cache.entries[slot].moves, records[i].moves, records[i].length);
+            cache.entries[slot].length = records[i].length;
+            link_back(slot);
+        }
+    }
+    free(records);
+    return res;
+}
+
+int solution_cache_save(const char* cache_dir)
+{
+    cache_header_t header;
+    cache_record_t* records;
+    char* tmp_name;
+    char* fname;
+    FILE* f;
+    int i, n = 0, res = 0;
+
+    // copy the entries, so the file is written without holding the lock
+    {
+        std::lock_guard<std::mutex> guard(cache.lock);
+        if (!cache.dirty)
+            return 0;
+        records = (cache_record_t*) calloc(cache.size + 1, sizeof(cache_record_t));
+        if (records == NULL)
+            return -1;
+        for (i = cache.head; i >= 0; i = cache.entries[i].next, n++) {
+            records[n].corners = cache.entries[i].key.corners;
+            records[n].edges = cache.entries[i].key.edges;
+            records[n].length = (uint8_t) cache.entries[i].length;
+            memcpy(records[n].moves, cache.entries[i].moves, cache.entries[i].length);
+        }
+        cache.dirty = 0;
+    }
+    header.magic = SOLUTION_CACHE_MAGIC;
+    header.version = SOLUTION_CACHE_VERSION;
+    header.count = (uint32_t) n;
+    header.crc = (uint32_t) crc32(0L, (const Bytef*) records, (uInt) (n * sizeof(cache_record_t)));
+
+    if (make_dir(cache_dir) != 0 && errno != EEXIST) {
+        free(records);
+        return -1;
+    }
+    tmp_name = join_path(cache_dir, SOLUTION_CACHE_TMP_FILE);
+    fname = join_path(cache_dir, SOLUTION_CACHE_FILE);
+    f = tmp_name != NULL && fname != NULL ? fopen(tmp_name, "wb") : NULL;
+    if (f == NULL) {
+        res = -1;
+    } else {
+        if (fwrite(&header, sizeof(header), 1, f) != 1
+            || fwrite(records, sizeof(cache_record_t), n, f) != (size_t) n)
+            res = -1;
+#if !defined(_WIN32)
+        if (res == 0 && (fflush(f) != 0 || fsync(fileno(f)) != 0))
+            res = -1;
+#endif
+        if (fclose(f) != 0)
+            res = -1;
+        if (res == 0 && rename(tmp_name, fname) != 0)
+            res = -1;
+        if (res != 0)
+            remove(tmp_name);
+    }
+    if (res != 0) {
+        fprintf(stderr, "Cannot write solution cache: %s\n", strerror(errno));
+        // try again with the next save
+        std::lock_guard<std::mutex> guard(cache.lock);
+        cache.dirty = 1;
+    }
+    free(records);
+    free(tmp_name);
+    free(fname);
+    return res;
+}
+
+void solution_cache_stats(long* hits, long* misses, int* size)
+{
+    std::lock_guard<std::mutex> guard(cache.lock);
+    *hits = cache.hits;
+    *misses = cache.misses;
+    *size = cache.size;
+}
+
+void solution_cache_clear(void)
+{
+    std::lock_guard<std::mutex> guard(cache.lock);
+    cache.index.clear();
+    cache.size = 0;
+    cache.head = -1;
+    cache.tail = -1;
+    cache.dirty = 1;
+    cache.hits = 0;
+    cache.misses = 0;
+}
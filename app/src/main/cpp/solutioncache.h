@@ -0,0 +1,37 @@
+#ifndef SOLUTIONCACHE_H
+#define SOLUTIONCACHE_H
+
+#include "cubiecube.h"
+
+// Bounded LRU cache of solutions. Cubes that are conjugates of each other under any of the 48 cube symmetries share
+// one entry: the key is the smallest cubestate_t (see cubestate.h) of the conjugated cubes, and the solution is stored for that
+// canonical cube and conjugated back on a hit. All functions are thread-safe.
+
+#define SOLUTION_CACHE_CAPACITY 1024
+#define SOLUTION_CACHE_FILE     "solution-cache.bin"
+#define SOLUTION_CACHE_TMP_FILE "solution-cache.bin.tmp"
+#define SOLUTION_CACHE_MAGIC    0x43534B52  // "RKSC"
+#define SOLUTION_CACHE_VERSION  2
+
+// Look up a solution of cube with at most maxDepth moves. On a hit the moves (3 * axis + power - 1) are stored in
+// moves, which must hold SOLVE_MAX_MOVES entries, and 1 is returned, otherwise 0.
+int solution_cache_get(const cubiecube_t* cube, int maxDepth, signed char* moves, int* length);
+
+// Remember a solution of cube. An entry that already holds a shorter solution is kept.
+void solution_cache_put(const cubiecube_t* cube, const signed char* moves, int length);
+
+// Load the entries saved in cache_dir by solution_cache_save. Entries already in the cache are kept and take
+// precedence. Returns 0 on success, non-zero if there is no valid cache file.
+int solution_cache_load(const char* cache_dir);
+
+// Write the cache into cache_dir (temporary file and rename, like the table store). Does nothing if the cache has
+// not changed since it was last loaded or saved. Returns 0 on success, non-zero on error.
+int solution_cache_save(const char* cache_dir);
+
+// Lookups that found or did not find a solution, and the number of cached entries
+void solution_cache_stats(long* hits, long* misses, int* size);
+
+// Drop all entries and reset the counters
+void solution_cache_clear(void);
+
+#endif
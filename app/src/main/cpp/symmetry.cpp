@@ -0,0 +1,285 @@
+#include <string.h>
+#include "symmetry.h"
+
+// The four basic symmetries: 120 degree turn around the URF-DBL diagonal, half turn around the FB axis, quarter turn
+// around the UD axis and reflection at the RL slice plane. The last three generate the 16 UD symmetries, the first one
+// turns the other two axes onto the UD axis (see rotate_urf3).
+static const cubiecube_t S_URF3 = {
+        { URF, DFR, DLF, UFL, UBR, DRB, DBL, ULB }, { 1, 2, 1, 2, 2, 1, 2, 1 },
+        { UF, FR, DF, FL, UB, BR, DB, BL, UR, DR, DL, UL }, { 1, 0, 1, 0, 1, 0, 1, 0, 1, 1, 1, 1 } };
+static const cubiecube_t S_F2 = {
+        { DLF, DFR, DRB, DBL, UFL, URF, UBR, ULB }, { 0, 0, 0, 0, 0, 0, 0, 0 },
+        { DL, DF, DR, DB, UL, UF, UR, UB, FL, FR, BR, BL }, { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 } };
+static const cubiecube_t S_U4 = {
+        { UBR, URF, UFL, ULB, DRB, DFR, DLF, DBL }, { 0, 0, 0, 0, 0, 0, 0, 0 },
+        { UB, UR, UF, UL, DB, DR, DF, DL, BR, FR, FL, BL }, { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1 } };
+// Corner orientations >= 3 mark a mirrored cube, see cornerMultiply
+static const cubiecube_t S_LR2 = {
+        { UFL, URF, UBR, ULB, DLF, DFR, DRB, DBL }, { 3, 3, 3, 3, 3, 3, 3, 3 },
+        { UL, UF, UR, UB, DL, DF, DR, DB, FL, FR, BR, BL }, { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 } };
+
+static const cubiecube_t identity = {
+        { URF, UFL, ULB, UBR, DFR, DLF, DBL, DRB }, { 0, 0, 0, 0, 0, 0, 0, 0 },
+        { UR, UF, UL, UB, DR, DF, DL, DB, FR, FL, BL, BR }, { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 } };
+
+typedef struct {
+    cubiecube_t symCube[N_SYM_D4h];
+    int invIdx[N_SYM_D4h];
+} symmetries_t;
+
+static symmetries_t build_symmetries(void)
+{
+    symmetries_t s;
+    cubiecube_t cc = identity;
+    int f2, u4, lr2, i, j, idx = 0;
+
+    // symmetry index 8 * f2 + 2 * u4 + lr2
+    for (f2 = 0; f2 < 2; f2++) {
+        for (u4 = 0; u4 < 4; u4++) {
+            for (lr2 = 0; lr2 < 2; lr2++) {
+                s.symCube[idx++] = cc;
+                multiply(&cc, &S_LR2);
+            }
+            multiply(&cc, &S_U4);
+        }
+        multiply(&cc, &S_F2);
+    }
+
+    for (j = 0; j < N_SYM_D4h; j++)
+        for (i = 0; i < N_SYM_D4h; i++) {
+            cubiecube_t ss = s.symCube[j];
+            multiply(&ss, &s.symCube[i]);
+            if (memcmp(ss.cp, identity.cp, sizeof(ss.cp)) == 0 && memcmp(ss.ep, identity.ep, sizeof(ss.ep)) == 0) {
+                s.invIdx[j] = i;
+                break;
+            }
+        }
+    return s;
+}
+
+// Built on first use; a function-local static is initialized exactly once even with concurrent callers
+static const symmetries_t* get_symmetries(void)
+{
+    static const symmetries_t symmetries = build_symmetries();
+    return &symmetries;
+}
+
+const cubiecube_t* get_symCube(void)
+{
+    return get_symmetries()->symCube;
+}
+
+const int* get_invSymIdx(void)
+{
+    return get_symmetries()->invIdx;
+}
+
+// Edges of S_s * X * S_s^-1 for the edges of X in cc
+static void conj_edges(const symmetries_t* sym, int s, const cubiecube_t* cc, cubiecube_t* res)
+{
+    *res = sym->symCube[s];
+    edgeMultiply(res, cc);
+    edgeMultiply(res, &sym->symCube[sym->invIdx[s]]);
+}
+
+static int get_flipslice(cubiecube_t* cc)
+{
+    return N_FLIP * (getFRtoBR(cc) / 24) + getFlip(cc);
+}
+
+static void set_flipslice(cubiecube_t* cc, int flipslice)
+{
+    setFRtoBR(cc, (short) (24 * (flipslice / N_FLIP)));
+    setFlip(cc, (short) (flipslice % N_FLIP));
+}
+
+void init_flipslice_sym(flipslice_sym_t* fs)
+{
+    const symmetries_t* sym = get_symmetries();
+    cubiecube_t cc = identity, ss;
+    int i, s, idx, count = 0;
+
+    for (i = 0; i < N_FLIPSLICE; i++)
+        fs->classidx[i] = 0xffff;
+    for (i = 0; i < N_FLIPSLICE; i++) {
+        if (fs->classidx[i] != 0xffff)
+            continue;
+        fs->classidx[i] = (unsigned short) count;
+        fs->sym[i] = 0;
+        fs->rep[count] = (unsigned int) i;
+        set_flipslice(&cc, i);
+        // every cube S_s^-1 * rep * S_s belongs to the class and maps to rep with symmetry s
+        for (s = 1; s < N_SYM_D4h; s++) {
+            conj_edges(sym, sym->invIdx[s], &cc, &ss);
+            idx = get_flipslice(&ss);
+            if (fs->classidx[idx] == 0xffff) {
+                fs->classidx[idx] = (unsigned short) count;
+                fs->sym[idx] = (unsigned char) s;
+            }
+        }
+        count++;
+    }
+}
+
+void init_twistConj(unsigned short (*twistConj)[N_SYM_D4h])
+{
+    const symmetries_t* sym = get_symmetries();
+    cubiecube_t cc = identity, ss;
+    int twist, s;
+
+    for (twist = 0; twist < N_TWIST; twist++) {
+        setTwist(&cc, (short) twist);
+        for (s = 0; s < N_SYM_D4h; s++) {
+            ss = sym->symCube[s];
+            cornerMultiply(&ss, &cc);
+            cornerMultiply(&ss, &sym->symCube[sym->invIdx[s]]);
+            twistConj[twist][s] = (unsigned short) getTwist(&ss);
+        }
+    }
+}
+
+void init_flipslice_selfsym(const flipslice_sym_t* fs, unsigned short* selfSym)
+{
+    const symmetries_t* sym = get_symmetries();
+    cubiecube_t cc = identity, ss;
+    int c, s;
+
+    for (c = 0; c < N_FLIPSLICE_CLASS; c++) {
+        set_flipslice(&cc, (int) fs->rep[c]);
+        selfSym[c] = 1;
+        for (s = 1; s < N_SYM_D4h; s++) {
+            conj_edges(sym, s, &cc, &ss);
+            if (get_flipslice(&ss) == (int) fs->rep[c])
+                selfSym[c] |= (unsigned short) (1 << s);
+        }
+    }
+}
+
+typedef struct {
+    cubiecube_t urf3[3];            // S^0, S^1, S^2
+    int unrotate[3][N_MOVE];
+} rotations_t;
+
+static int same_cube(const cubiecube_t* a, const cubiecube_t* b)
+{
+    return memcmp(a->cp, b->cp, sizeof(a->cp)) == 0 && memcmp(a->co, b->co, sizeof(a->co)) == 0
+           && memcmp(a->ep, b->ep, sizeof(a->ep)) == 0 && memcmp(a->eo, b->eo, sizeof(a->eo)) == 0;
+}
+
+static rotations_t build_rotations(void)
+{
+    rotations_t r;
+    cubiecube_t moves[N_MOVE], cc;
+    int k, m, j, p;
+
+    r.urf3[0] = identity;
+    r.urf3[1] = S_URF3;
+    r.urf3[2] = S_URF3;
+    multiply(&r.urf3[2], &S_URF3);
+
+    for (m = 0; m < N_MOVE; m++) {
+        moves[m] = identity;
+        for (p = 0; p <= m % 3; p++)
+            multiply(&moves[m], &get_moveCube()[m / 3]);
+    }
+    // a solution M1..Mn of S^k * X * S^-k gives the solution (S^-k * M1 * S^k)..(S^-k * Mn * S^k) of X
+    for (k = 0; k < 3; k++)
+        for (m = 0; m < N_MOVE; m++) {
+            cc = r.urf3[(3 - k) % 3];
+            multiply(&cc, &moves[m]);
+            multiply(&cc, &r.urf3[k]);
+            for (j = 0; j < N_MOVE; j++)
+                if (same_cube(&cc, &moves[j]))
+                    r.unrotate[k][m] = j;
+        }
+    return r;
+}
+
+static const rotations_t* get_rotations(void)
+{
+    static const rotations_t rotations = build_rotations();
+    return &rotations;
+}
+
+void rotate_urf3(const cubiecube_t* cc, int k, cubiecube_t* res)
+{
+    const rotations_t* r = get_rotations();
+    *res = r->urf3[k];
+    multiply(res, cc);
+    multiply(res, &r->urf3[(3 - k) % 3]);
+}
+
+int unrotate_move_urf3(int m, int k)
+{
+    return get_rotations()->unrotate[k][m];
+}
+
+typedef struct {
+    cubiecube_t symCube[N_SYM];
+    int invIdx[N_SYM];
+    int conjMove[N_SYM][N_MOVE];
+} symmetries48_t;
+
+static symmetries48_t build_symmetries48(void)
+{
+    const symmetries_t* sym = get_symmetries();
+    const rotations_t* r = get_rotations();
+    symmetries48_t s;
+    cubiecube_t moves[N_MOVE], cc, solved = identity;
+    int k, i, j, m, p;
+
+    for (k = 0; k < 3; k++)
+        for (i = 0; i < N_SYM_D4h; i++) {
+            s.symCube[N_SYM_D4h * k + i] = r->urf3[k];
+            multiply(&s.symCube[N_SYM_D4h * k + i], &sym->symCube[i]);
+        }
+    for (i = 0; i < N_SYM; i++)
+        for (j = 0; j < N_SYM; j++) {
+            cc = s.symCube[i];
+            multiply(&cc, &s.symCube[j]);
+            if (same_cube(&cc, &solved)) {
+                s.invIdx[i] = j;
+                break;
+            }
+        }
+
+    for (m = 0; m < N_MOVE; m++) {
+        moves[m] = identity;
+        for (p = 0; p <= m % 3; p++)
+            multiply(&moves[m], &get_moveCube()[m / 3]);
+    }
+    for (i = 0; i < N_SYM; i++)
+        for (m = 0; m < N_MOVE; m++) {
+            cc = s.symCube[i];
+            multiply(&cc, &moves[m]);
+            multiply(&cc, &s.symCube[s.invIdx[i]]);
+            for (j = 0; j < N_MOVE; j++)
+                if (same_cube(&cc, &moves[j]))
+                    s.conjMove[i][m] = j;
+        }
+    return s;
+}
+
+static const symmetries48_t* get_symmetries48(void)
+{
+    static const symmetries48_t symmetries48 = build_symmetries48();
+    return &symmetries48;
+}
+
+void conjugate_sym(const cubiecube_t* cc, int s, cubiecube_t* res)
+{
+    const symmetries48_t* sym = get_symmetries48();
+    *res = sym->symCube[s];
+    multiply(res, cc);
+    multiply(res, &sym->symCube[sym->invIdx[s]]);
+}
+
+int conjugate_move_sym(int m, int s)
+{
+    return get_symmetries48()->conjMove[s][m];
+}
+
+int get_invSym(int s)
+{
+    return get_symmetries48()->invIdx[s];
+}
@@ -0,0 +1,49 @@
+#ifndef SYMMETRY_H
+#define SYMMETRY_H
+
+#include "coordcube.h"
+
+// Symmetry reduction of the phase 1 coordinates by the 16 symmetries of the cube that preserve the UD axis (rotations
+// around the UD axis, the half turn around the FB axis and the reflection at the RL slice plane). Conjugating a cube
+// by one of them keeps the UD slice and the phase 1 goal, so the distance to the H-subgroup is the same for all cubes
+// of a symmetry class and the phase 1 pruning table only needs one entry per class.
+//
+// Symmetry s maps a cube X to S_s * X * S_s^-1.
+
+// The 16 symmetry cubes. Symmetry 0 is the identity.
+const cubiecube_t* get_symCube(void);
+
+// Index of the inverse symmetry of every symmetry
+const int* get_invSymIdx(void);
+
+// Split the flipslice coordinates N_FLIP * slice + flip into symmetry classes. The representant of a class is its
+// smallest flipslice coordinate.
+void init_flipslice_sym(flipslice_sym_t* fs);
+
+// twistConj[twist][s] is the twist of S_s * X * S_s^-1 for a cube X with the given twist
+void init_twistConj(unsigned short (*twistConj)[N_SYM_D4h]);
+
+// selfSym[c] gets bit s set if symmetry s maps the representant of class c onto itself (bit 0 is always set)
+void init_flipslice_selfsym(const flipslice_sym_t* fs, unsigned short* selfSym);
+
+// Conjugate cc by the 120 degree rotation S around the URF-DBL diagonal applied k times (k = 0..2):
+// res = S^k * cc * S^-k. For k = 1 and k = 2 one of the other two axes of cc becomes the UD axis of res.
+void rotate_urf3(const cubiecube_t* cc, int k, cubiecube_t* res);
+
+// Move of the original cube that corresponds to move m (3 * axis + power - 1) of a cube rotated by rotate_urf3(k)
+int unrotate_move_urf3(int m, int k);
+
+// All 48 symmetries of the cube: S_URF3^k * S_s for k = 0..2 and the 16 UD symmetries s, numbered 16 * k + s.
+#define N_SYM 48
+
+// res = S * cc * S^-1 for symmetry s (0..N_SYM-1). Mirrored symmetries turn a cube into a regular cube again.
+void conjugate_sym(const cubiecube_t* cc, int s, cubiecube_t* res);
+
+// The move S * M * S^-1 for symmetry s and move m (3 * axis + power - 1). A solution M1..Mn of X turns into the
+// solution conjugate_move_sym(M1, s)..conjugate_move_sym(Mn, s) of S * X * S^-1.
+int conjugate_move_sym(int m, int s);
+
+// Index of the inverse of symmetry s
+int get_invSym(int s);
+
+#endif
@@ -0,0 +1,236 @@
+#include <stdio.h>
+#include <stdlib.h>
+#include <stdint.h>
+#include <string.h>
+#include <errno.h>
+#include <sys/stat.h>
+#include <zlib.h>
+#if !defined(_WIN32)
+#include <fcntl.h>
+#include <sys/mman.h>
+#endif
+#include "prunetable_helpers.h"
+#include "tablestore.h"
+
+typedef struct {
+    uint32_t magic;
+    uint32_t version;
+    uint32_t count;
+    uint32_t reserved;
+    uint64_t total_size;
+} tablestore_header_t;
+
+typedef struct {
+    char name[TABLESTORE_NAME_LEN];
+    uint64_t offset;
+    uint64_t length;
+    uint32_t crc;
+    uint32_t reserved;
+} tablestore_record_t;
+
+static size_t align_up(size_t value)
+{
+    return (value + TABLESTORE_ALIGN - 1) & ~((size_t) TABLESTORE_ALIGN - 1);
+}
+
+static uint32_t table_crc(const void* data, size_t size)
+{
+    uLong crc = crc32(0L, Z_NULL, 0);
+    const Bytef* p = (const Bytef*) data;
+    // crc32 takes a uInt length
+    while (size > 0) {
+        uInt chunk = size > (1u << 30) ? (1u << 30) : (uInt) size;
+        crc = crc32(crc, p, chunk);
+        p += chunk;
+        size -= chunk;
+    }
+    return (uint32_t) crc;
+}
+
+// Check the record of table i against the expected entry and the file size. The table data is not read, so the pages
+// of the mapping are only faulted in when the solver uses them (see tablestore_check).
+static int record_valid(const tablestore_record_t* rec, const table_entry_t* entry, size_t total)
+{
+    if (strncmp(rec->name, entry->name, TABLESTORE_NAME_LEN) != 0)
+        return 0;
+    return rec->length == entry->size && rec->offset % TABLESTORE_ALIGN == 0
+        && rec->offset <= total && rec->length <= total - rec->offset;
+}
+
+int tablestore_map(tablestore_t* store, const char* cache_dir, table_entry_t* entries, int count)
+{
+    int i, valid = 0;
+    for (i = 0; i < count; i++)
+        entries[i].data = NULL;
+    store->base = NULL;
+    store->size = 0;
+#if defined(_WIN32)
+    return 0;
+#else
+    int fd;
+    struct stat st;
+    void* base;
+    size_t total;
+    const tablestore_header_t* header;
+    const tablestore_record_t* records;
+    char* fname = join_path(cache_dir, TABLESTORE_FILE);
+    if (fname == NULL) {
+        fprintf(stderr, "Path to cache tables is too long\n");
+        return 0;
+    }
+
+    fd = open(fname, O_RDONLY);
+    free(fname);
+    if (fd < 0)
+        return 0;
+
+    if (fstat(fd, &st) != 0 || (size_t) st.st_size < sizeof(tablestore_header_t)) {
+        close(fd);
+        return 0;
+    }
+    total = (size_t) st.st_size;
+    base = mmap(NULL, total, PROT_READ, MAP_SHARED, fd, 0);
+    close(fd);// the mapping keeps the file referenced
+    if (base == MAP_FAILED) {
+        fprintf(stderr, "Cannot map cache tables: %s\n", strerror(errno));
+        return 0;
+    }
+
+    header = (const tablestore_header_t*) base;
+    if (header->magic != TABLESTORE_MAGIC || header->version != TABLESTORE_VERSION
+        || header->count != (uint32_t) count || header->total_size != total
+        || sizeof(tablestore_header_t) + count * sizeof(tablestore_record_t) > total) {
+        fprintf(stderr, "Cache table file has an unknown format. Recalculating.\n");
+        munmap(base, total);
+        return 0;
+    }
+
+    records = (const tablestore_record_t*) ((const char*) base + sizeof(tablestore_header_t));
+    for (i = 0; i < count; i++) {
+        if (record_valid(&records[i], &entries[i], total)) {
+            entries[i].data = (char*) base + records[i].offset;
+            valid++;
+        } else {
+            fprintf(stderr, "Cache table %s is missing or has the wrong size. Recalculating.\n", entries[i].name);
+        }
+    }
+
+    if (valid == 0) {
+        munmap(base, total);
+        return 0;
+    }
+    store->base = base;
+    store->size = total;
+    return valid;
+#endif
+}
+
+int tablestore_check(const tablestore_t* store, table_entry_t* entries, int count)
+{
+    const tablestore_record_t* records;
+    int i, failed = 0;
+    if (store->base == NULL)
+        return 0;
+    records = (const tablestore_record_t*) ((const char*) store->base + sizeof(tablestore_header_t));
+    for (i = 0; i < count; i++) {
+        if (entries[i].data == NULL)
+            continue;
+        if (table_crc(entries[i].data, entries[i].size) != records[i].crc) {
+            fprintf(stderr, "Cache table %s is corrupt. Recalculating.\n", entries[i].name);
+            entries[i].data = NULL;
+            failed++;
+        }
+    }
+    return failed;
+}
+
+void tablestore_unmap(tablestore_t* store)
+{
+#if !defined(_WIN32)
+    if (store->base != NULL)
+        munmap(store->base, store->size);
+#endif
+    store->base = NULL;
+    store->size = 0;
+}
+
+int tablestore_write(const char* cache_dir, const table_entry_t* entries, int count)
+{
+    int i, res = 0;
+    FILE* f;
+    char* tmp_name;
+    char* fname;
+    size_t pos;
+    tablestore_header_t header;
+    tablestore_record_t* records;
+    static const char zeros[TABLESTORE_ALIGN] = {0};
+
+    if (make_dir(cache_dir) != 0 && errno != EEXIST) {
+        fprintf(stderr, "cannot create cache tables directory\n");
+        return -1;
+    }
+    tmp_name = join_path(cache_dir, TABLESTORE_TMP_FILE);
+    fname = join_path(cache_dir, TABLESTORE_FILE);
+    if (tmp_name == NULL || fname == NULL) {
+        fprintf(stderr, "Path to cache tables is too long\n");
+        free(tmp_name);
+        free(fname);
+        return -1;
+    }
+    f = fopen(tmp_name, "wb");
+    if (f == NULL) {
+        fprintf(stderr, "Cannot write cache tables: %s\n", strerror(errno));
+        free(tmp_name);
+        free(fname);
+        return -1;
+    }
+
+    // lay out the tables behind the header and the directory
+    records = (tablestore_record_t*) calloc(count, sizeof(tablestore_record_t));
+    pos = align_up(sizeof(tablestore_header_t) + count * sizeof(tablestore_record_t));
+    for (i = 0; i < count; i++) {
+        strncpy(records[i].name, entries[i].name, TABLESTORE_NAME_LEN - 1);
+        records[i].offset = pos;
+        records[i].length = entries[i].size;
+        records[i].crc = table_crc(entries[i].data, entries[i].size);
+        pos = align_up(pos + entries[i].size);
+    }
+    memset(&header, 0, sizeof(header));
+    header.magic = TABLESTORE_MAGIC;
+    header.version = TABLESTORE_VERSION;
+    header.count = (uint32_t) count;
+    header.total_size = pos;
+
+    if (fwrite(&header, sizeof(header), 1, f) != 1
+        || fwrite(records, sizeof(tablestore_record_t), count, f) != (size_t) count)
+        res = -1;
+    pos = sizeof(header) + count * sizeof(tablestore_record_t);
+    for (i = 0; i < count && res == 0; i++) {
+        // pad up to the aligned start of the table
+        if (records[i].offset > pos && fwrite(zeros, records[i].offset - pos, 1, f) != 1)
+            res = -1;
+        else if (fwrite(entries[i].data, entries[i].size, 1, f) != 1)
+            res = -1;
+        pos = records[i].offset + entries[i].size;
+    }
+    if (res == 0 && header.total_size > pos && fwrite(zeros, header.total_size - pos, 1, f) != 1)
+        res = -1;
+#if !defined(_WIN32)
+    // the data must be on disk before the rename makes it visible
+    if (res == 0 && (fflush(f) != 0 || fsync(fileno(f)) != 0))
+        res = -1;
+#endif
+    if (fclose(f) != 0)
+        res = -1;
+
+    if (res == 0 && rename(tmp_name, fname) != 0)
+        res = -1;
+    if (res != 0) {
+        fprintf(stderr, "Cannot write cache tables: %s\n", strerror(errno));
+        remove(tmp_name);
+    }
+    free(records);
+    free(tmp_name);
+    free(fname);
+    return res;
+}
@@ -0,0 +1,57 @@
+#ifndef TABLESTORE_H
+#define TABLESTORE_H
+
+#include <stddef.h>
+
+// Store for the move and pruning tables. All tables live in one versioned cache file which is memory-mapped
+// read-only, so the pages are shared, loaded lazily by the kernel and never copied into private memory.
+//
+// File layout:
+//   header      magic, format version, table count, total file size
+//   directory   one record per table: name, offset, length and CRC32 of the table data
+//   tables      table data, each table aligned to TABLESTORE_ALIGN
+//
+// Mapping only checks the header and the directory, so it does not read the tables and their pages stay lazily
+// mapped. tablestore_check compares the tables with their CRCs; it reads every page and is meant for a background
+// thread.
+
+#define TABLESTORE_FILE     "cube-tables.bin"
+#define TABLESTORE_TMP_FILE "cube-tables.bin.tmp"
+#define TABLESTORE_MAGIC    0x54434B52  // "RKCT"
+#define TABLESTORE_VERSION  2
+
+// Tables inside the cache file are aligned to this boundary
+#define TABLESTORE_ALIGN    64
+#define TABLESTORE_NAME_LEN 32
+
+typedef struct {
+    const char* name;
+    size_t size;
+    // Points at the table data once the store is mapped (or at heap memory while the table is generated).
+    // NULL if the table is missing or corrupt in the cache file.
+    void* data;
+} table_entry_t;
+
+// A mapped cache file
+typedef struct {
+    void* base;
+    size_t size;
+} tablestore_t;
+
+// Map the cache file and point every entry whose table is present with the expected size at its data.
+// Entries that are missing or do not match get data = NULL. Returns the number of valid tables; the store is only kept
+// mapped if that number is greater than 0.
+int tablestore_map(tablestore_t* store, const char* cache_dir, table_entry_t* entries, int count);
+
+// Compare every entry that points into the store with the CRC in its directory record. Entries that do not match get
+// data = NULL. Returns the number of such entries.
+int tablestore_check(const tablestore_t* store, table_entry_t* entries, int count);
+
+// Release a mapping created by tablestore_map. Table data of the store must not be used afterwards.
+void tablestore_unmap(tablestore_t* store);
+
+// Write the data of all entries into a temporary file and atomically rename it over the cache file, so a crash never
+// leaves a truncated cache file behind. Returns 0 on success, non-zero on error.
+int tablestore_write(const char* cache_dir, const table_entry_t* entries, int count);
+
+#endif
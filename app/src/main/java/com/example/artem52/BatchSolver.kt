@@ -0,0 +1,78 @@
+package com.example.artem52
+
+/**
+ * Пакетное решение развёрток за один вызов JNI (для тестов и аналитики).
+ * Кубики решаются параллельно на всех ядрах в нативном коде.
+ */
+object BatchSolver {
+    const val STATUS_OK = 0
+    const val STATUS_BAD_FACELETS = 1
+    const val STATUS_BAD_CUBE = 2
+    const val STATUS_TIMEOUT = 3
+    const val STATUS_MAX_DEPTH = 4
+    const val STATUS_CANCELLED = 5
+    const val STATUS_BAD_TABLES = 6
+
+    // timeOutMs - ограничение времени на каждый кубик
+    fun solve(cacheDir: String, facelets: Array<String>, maxDepth: Int = 24, timeOutMs: Long = 10_000): BatchSolution {
+        val status = IntArray(facelets.size)
+        val offsets = IntArray(facelets.size + 1)
+        val moves = solveBatch(cacheDir, facelets, maxDepth, timeOutMs, status, offsets)
+        return BatchSolution(status, offsets, moves)
+    }
+
+    // То же для упакованных состояний: без строк на каждый кубик
+    fun solve(cacheDir: String, states: List<CubeState>, maxDepth: Int = 24, timeOutMs: Long = 10_000): BatchSolution {
+        val words = LongArray(states.size * 2)
+        for ((i, state) in states.withIndex()) {
+            words[2 * i] = state.corners
+            words[2 * i + 1] = state.edges
+        }
+        val status = IntArray(states.size)
+        val offsets = IntArray(states.size + 1)
+        val moves = solveBatchStates(cacheDir, words, maxDepth, timeOutMs, status, offsets)
+        return BatchSolution(status, offsets, moves)
+    }
+
+    private external fun solveBatch(
+        cacheDir: String,
+        facelets: Array<String>,
+        maxDepth: Int,
+        timeOutMs: Long,
+        status: IntArray,
+        offsets: IntArray
+    ): ByteArray
+
+    private external fun solveBatchStates(
+        cacheDir: String,
+        states: LongArray,
+        maxDepth: Int,
+        timeOutMs: Long,
+        status: IntArray,
+        offsets: IntArray
+    ): ByteArray
+
+    init {
+        System.loadLibrary("cube-solver")
+    }
+}
+
+/**
+ * Результат BatchSolver.solve. Ходы всех кубиков упакованы подряд в [moves]:
+ * ходы i-го кубика лежат в [offsets[i], offsets[i + 1]) как индексы 3 * ось + степень - 1,
+ * оси в порядке URFDLB (0 = U, 1 = U2, 2 = U', 3 = R, ...).
+ */
+class BatchSolution(val status: IntArray, val offsets: IntArray, val moves: ByteArray) {
+    val size: Int get() = status.size
+
+    fun moveCount(index: Int): Int = offsets[index + 1] - offsets[index]
+
+    // Ходы i-го кубика, null если кубик не решён
+    fun sequence(index: Int): MoveSequence? {
+        if (status[index] != BatchSolver.STATUS_OK) return null
+        return MoveSequence.wrap(moves.copyOfRange(offsets[index], offsets[index + 1]))
+    }
+
+    // Решение i-го кубика в обычной записи ("R U2 F'"), null если кубик не решён
+    fun format(index: Int): String? = sequence(index)?.toString()
+}
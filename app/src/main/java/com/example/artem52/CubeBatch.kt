@@ -0,0 +1,127 @@
+package com.example.artem52
+
+import android.opengl.GLES20
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Все кубики одним мешем в памяти GPU: статический VBO с позициями вершин и номером кубика (Cube.id) в каждой
+ * вершине, VBO цветов и общий IBO. Преобразования кубиков передаются uniform-массивом uModel[[MAX_CUBES]],
+ * поэтому весь куб рисуется одним glDrawElements.
+ *
+ * [create] и [draw] вызываются в GL-потоке, create - заново после каждой потери контекста (onSurfaceCreated).
+ * Изменения цветов копятся в colorData через [commit] и выгружаются одним glBufferSubData в начале draw.
+ */
+class CubeBatch {
+    private val buffers = IntArray(3)
+    private var cubeCount = 0
+
+    // Цвета вершин всех кубиков; переживает потерю контекста и целиком загружается в create
+    private val colorData = ByteBuffer.allocateDirect(MAX_CUBES * Cube.COLOR_FLOATS * 4)
+        .order(ByteOrder.nativeOrder()).asFloatBuffer()
+    // Участок colorData [dirtyFrom, dirtyTo) в float, записанный commit и ещё не выгруженный
+    private var dirtyFrom = Int.MAX_VALUE
+    private var dirtyTo = 0
+
+    fun create(cubeCount: Int) {
+        require(cubeCount <= MAX_CUBES) { "At most $MAX_CUBES cubes in a batch" }
+        this.cubeCount = cubeCount
+        GLES20.glGenBuffers(buffers.size, buffers, 0)
+
+        // x, y, z, номер кубика
+        val vertices = FloatArray(cubeCount * Cube.VERTEX_COUNT * 4)
+        for (cube in 0 until cubeCount) {
+            for (v in 0 until Cube.VERTEX_COUNT) {
+                val dst = (cube * Cube.VERTEX_COUNT + v) * 4
+                System.arraycopy(Cube.vertices, v * 3, vertices, dst, 3)
+                vertices[dst + 3] = cube.toFloat()
+            }
+        }
+        val indices = ShortArray(cubeCount * Cube.indices.size)
+        for (cube in 0 until cubeCount) {
+            for (i in Cube.indices.indices) {
+                indices[cube * Cube.indices.size + i] = (Cube.indices[i] + cube * Cube.VERTEX_COUNT).toShort()
+            }
+        }
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[VERTICES])
+        val vertexData = ByteBuffer.allocateDirect(vertices.size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer()
+        vertexData.put(vertices).position(0)
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertices.size * 4, vertexData, GLES20.GL_STATIC_DRAW)
+
+        // Дальше изменения цветов выгружаются участками в upload
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[COLORS])
+        colorData.position(0)
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, cubeCount * Cube.COLOR_FLOATS * 4, colorData, GLES20.GL_DYNAMIC_DRAW)
+        dirtyFrom = Int.MAX_VALUE
+        dirtyTo = 0
+
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[INDICES])
+        val indexData = ByteBuffer.allocateDirect(indices.size * 2).order(ByteOrder.nativeOrder()).asShortBuffer()
+        indexData.put(indices).position(0)
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.size * 2, indexData, GLES20.GL_STATIC_DRAW)
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0)
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0)
+    }
+
+    // Записывает изменённые грани всех кубиков в colorData и расширяет невыгруженный участок. GL не вызывает,
+    // поэтому годится для любого потока, который меняет цвета (см. RotatingCubeRenderer.commitColorUpdate).
+    @Synchronized
+    fun commit(cubes: List<Cube>) {
+        for (i in cubes.indices) {
+            val cube = cubes[i]
+            val dirty = cube.dirtyFaces
+            if (dirty == 0) continue
+            val base = cube.id * Cube.COLOR_FLOATS
+            dirtyFrom = minOf(dirtyFrom, base + Integer.numberOfTrailingZeros(dirty) * Cube.FACE_FLOATS)
+            dirtyTo = maxOf(dirtyTo, base + (32 - Integer.numberOfLeadingZeros(dirty)) * Cube.FACE_FLOATS)
+            cube.writeDirtyFaces(colorData)
+        }
+    }
+
+    // Выгружает записанный участок одним glBufferSubData
+    @Synchronized
+    private fun upload() {
+        if (dirtyFrom >= dirtyTo) return
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[COLORS])
+        colorData.position(dirtyFrom)
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, dirtyFrom * 4, (dirtyTo - dirtyFrom) * 4, colorData)
+        colorData.position(0)
+        dirtyFrom = Int.MAX_VALUE
+        dirtyTo = 0
+    }
+
+    // uModel должен быть уже загружен для всех кубиков
+    fun draw(positionHandle: Int, cubieHandle: Int, colorHandle: Int) {
+        upload()
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[VERTICES])
+        GLES20.glEnableVertexAttribArray(positionHandle)
+        GLES20.glVertexAttribPointer(positionHandle, 3, GLES20.GL_FLOAT, false, 16, 0)
+        GLES20.glEnableVertexAttribArray(cubieHandle)
+        GLES20.glVertexAttribPointer(cubieHandle, 1, GLES20.GL_FLOAT, false, 16, 12)
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[COLORS])
+        GLES20.glEnableVertexAttribArray(colorHandle)
+        GLES20.glVertexAttribPointer(colorHandle, 4, GLES20.GL_FLOAT, false, 0, 0)
+
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[INDICES])
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, cubeCount * Cube.indices.size, GLES20.GL_UNSIGNED_SHORT, 0)
+
+        GLES20.glDisableVertexAttribArray(positionHandle)
+        GLES20.glDisableVertexAttribArray(cubieHandle)
+        GLES20.glDisableVertexAttribArray(colorHandle)
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0)
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0)
+    }
+
+    companion object {
+        // 27 матриц uModel и uViewProjection - 112 векторов, GLES 2.0 гарантирует 128 в вершинном шейдере
+        const val MAX_CUBES = 27
+
+        private const val VERTICES = 0
+        private const val COLORS = 1
+        private const val INDICES = 2
+    }
+}
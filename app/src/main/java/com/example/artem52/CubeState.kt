@@ -0,0 +1,226 @@
+package com.example.artem52
+
+/**
+ * Состояние куба в двух Long, та же упаковка, что cubestate_t в нативном коде:
+ * в [corners] позиция i хранит 5 бит (угол shl 2 or ориентация) начиная с бита 5 * i,
+ * в [edges] - 5 бит (ребро shl 1 or ориентация). Углы и рёбра в порядке URF..DRB и UR..BR (см. corner.h, edge.h).
+ *
+ * Сравнение и хэш за O(1), ход - поиск по таблицам, без строк и аллокаций кроме самого результата.
+ */
+class CubeState(val corners: Long, val edges: Long) {
+
+    val isSolved: Boolean get() = this == SOLVED
+
+    // Состояние после хода move = 3 * ось + степень - 1, оси в порядке URFDLB
+    fun move(move: Int): CubeState {
+        var c = 0L
+        var e = 0L
+        for (i in 0 until 8) {
+            val field = (corners ushr (5 * CORNER_SRC[move * 8 + i])).toInt() and FIELD_MASK
+            c = c or (CORNER_NEXT[(move * 8 + i) * 32 + field].toLong() shl (5 * i))
+        }
+        for (i in 0 until 12) {
+            val field = (edges ushr (5 * EDGE_SRC[move * 12 + i])).toInt() and FIELD_MASK
+            e = e or (EDGE_NEXT[(move * 12 + i) * 32 + field].toLong() shl (5 * i))
+        }
+        return CubeState(c, e)
+    }
+
+    fun move(moves: ByteArray): CubeState {
+        var s = this
+        for (m in moves) s = s.move(m.toInt())
+        return s
+    }
+
+    // Развёртка из 54 символов URFDLB (как в поле ввода и в solveCube)
+    fun toFacelets(): String {
+        val f = CharArray(54)
+        for (face in 0 until 6) f[9 * face + 4] = COLORS[face]
+        for (i in 0 until 8) {
+            val v = (corners ushr (5 * i)).toInt() and FIELD_MASK
+            val cubie = v shr 2
+            val ori = v and 3
+            for (n in 0 until 3) f[CORNER_FACELET[i][(n + ori) % 3]] = COLORS[CORNER_COLOR[cubie][n]]
+        }
+        for (i in 0 until 12) {
+            val v = (edges ushr (5 * i)).toInt() and FIELD_MASK
+            val cubie = v shr 1
+            val ori = v and 1
+            for (n in 0 until 2) f[EDGE_FACELET[i][(n + ori) % 2]] = COLORS[EDGE_COLOR[cubie][n]]
+        }
+        return String(f)
+    }
+
+    override fun equals(other: Any?): Boolean =
+        other is CubeState && other.corners == corners && other.edges == edges
+
+    override fun hashCode(): Int {
+        val h = corners * -0x61c8864680b583ebL xor edges
+        return (h xor (h ushr 32)).toInt()
+    }
+
+    override fun toString(): String = toFacelets()
+
+    companion object {
+        private const val FIELD_MASK = 0x1f
+        private const val COLORS = "URFDLB"
+
+        // Позиции наклеек угла / ребра в развёртке, первая задаёт ориентацию (см. facecube.cpp)
+        private val CORNER_FACELET = arrayOf(
+            intArrayOf(8, 9, 20), intArrayOf(6, 18, 38), intArrayOf(0, 36, 47), intArrayOf(2, 45, 11),
+            intArrayOf(29, 26, 15), intArrayOf(27, 44, 24), intArrayOf(33, 53, 42), intArrayOf(35, 17, 51)
+        )
+        private val EDGE_FACELET = arrayOf(
+            intArrayOf(5, 10), intArrayOf(7, 19), intArrayOf(3, 37), intArrayOf(1, 46),
+            intArrayOf(32, 16), intArrayOf(28, 25), intArrayOf(30, 43), intArrayOf(34, 52),
+            intArrayOf(23, 12), intArrayOf(21, 41), intArrayOf(50, 39), intArrayOf(48, 14)
+        )
+        private val CORNER_COLOR = arrayOf(
+            intArrayOf(0, 1, 2), intArrayOf(0, 2, 4), intArrayOf(0, 4, 5), intArrayOf(0, 5, 1),
+            intArrayOf(3, 2, 1), intArrayOf(3, 4, 2), intArrayOf(3, 5, 4), intArrayOf(3, 1, 5)
+        )
+        private val EDGE_COLOR = arrayOf(
+            intArrayOf(0, 1), intArrayOf(0, 2), intArrayOf(0, 4), intArrayOf(0, 5),
+            intArrayOf(3, 1), intArrayOf(3, 2), intArrayOf(3, 4), intArrayOf(3, 5),
+            intArrayOf(2, 1), intArrayOf(2, 4), intArrayOf(5, 4), intArrayOf(5, 1)
+        )
+
+        // Шесть базовых ходов URFDLB на уровне кубиков (как moveCube в cubiecube.cpp)
+        private val MOVE_CP = arrayOf(
+            intArrayOf(3, 0, 1, 2, 4, 5, 6, 7), intArrayOf(4, 1, 2, 0, 7, 5, 6, 3),
+            intArrayOf(1, 5, 2, 3, 0, 4, 6, 7), intArrayOf(0, 1, 2, 3, 5, 6, 7, 4),
+            intArrayOf(0, 2, 6, 3, 4, 1, 5, 7), intArrayOf(0, 1, 3, 7, 4, 5, 2, 6)
+        )
+        private val MOVE_CO = arrayOf(
+            intArrayOf(0, 0, 0, 0, 0, 0, 0, 0), intArrayOf(2, 0, 0, 1, 1, 0, 0, 2),
+            intArrayOf(1, 2, 0, 0, 2, 1, 0, 0), intArrayOf(0, 0, 0, 0, 0, 0, 0, 0),
+            intArrayOf(0, 1, 2, 0, 0, 2, 1, 0), intArrayOf(0, 0, 1, 2, 0, 0, 2, 1)
+        )
+        private val MOVE_EP = arrayOf(
+            intArrayOf(3, 0, 1, 2, 4, 5, 6, 7, 8, 9, 10, 11), intArrayOf(8, 1, 2, 3, 11, 5, 6, 7, 4, 9, 10, 0),
+            intArrayOf(0, 9, 2, 3, 4, 8, 6, 7, 1, 5, 10, 11), intArrayOf(0, 1, 2, 3, 5, 6, 7, 4, 8, 9, 10, 11),
+            intArrayOf(0, 1, 10, 3, 4, 5, 9, 7, 8, 2, 6, 11), intArrayOf(0, 1, 2, 11, 4, 5, 6, 10, 8, 9, 3, 7)
+        )
+        private val MOVE_EO = arrayOf(
+            intArrayOf(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0), intArrayOf(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0),
+            intArrayOf(0, 1, 0, 0, 0, 1, 0, 0, 1, 1, 0, 0), intArrayOf(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0),
+            intArrayOf(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0), intArrayOf(0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 1, 1)
+        )
+
+        // Таблицы ходов по упакованным полям: новое поле позиции i после хода m -
+        // NEXT[(m * n + i) * 32 + старое поле позиции SRC[m * n + i]]
+        private val CORNER_SRC = IntArray(18 * 8)
+        private val CORNER_NEXT = ByteArray(18 * 8 * 32)
+        private val EDGE_SRC = IntArray(18 * 12)
+        private val EDGE_NEXT = ByteArray(18 * 12 * 32)
+
+        init {
+            for (m in 0 until 18) {
+                // Ход в степени power как композиция базового хода
+                var cp = IntArray(8) { it }
+                var co = IntArray(8)
+                var ep = IntArray(12) { it }
+                var eo = IntArray(12)
+                val axis = m / 3
+                repeat(m % 3 + 1) {
+                    val ncp = IntArray(8) { i -> cp[MOVE_CP[axis][i]] }
+                    val nco = IntArray(8) { i -> (co[MOVE_CP[axis][i]] + MOVE_CO[axis][i]) % 3 }
+                    val nep = IntArray(12) { i -> ep[MOVE_EP[axis][i]] }
+                    val neo = IntArray(12) { i -> (eo[MOVE_EP[axis][i]] + MOVE_EO[axis][i]) % 2 }
+                    cp = ncp
+                    co = nco
+                    ep = nep
+                    eo = neo
+                }
+                for (i in 0 until 8) {
+                    CORNER_SRC[m * 8 + i] = cp[i]
+                    for (v in 0 until 32) {
+                        CORNER_NEXT[(m * 8 + i) * 32 + v] = ((v and 3.inv()) or ((v and 3) + co[i]) % 3).toByte()
+                    }
+                }
+                for (i in 0 until 12) {
+                    EDGE_SRC[m * 12 + i] = ep[i]
+                    for (v in 0 until 32) {
+                        EDGE_NEXT[(m * 12 + i) * 32 + v] = (v xor eo[i]).toByte()
+                    }
+                }
+            }
+        }
+
+        val SOLVED: CubeState = run {
+            var c = 0L
+            var e = 0L
+            for (i in 0 until 8) c = c or ((i shl 2).toLong() shl (5 * i))
+            for (i in 0 until 12) e = e or ((i shl 1).toLong() shl (5 * i))
+            CubeState(c, e)
+        }
+
+        /**
+         * Состояние по развёртке или null, если развёртка не описывает собираемый куб
+         * (не 54 символа URFDLB, не те кубики, скрученный угол, перевёрнутое ребро или нечётная перестановка).
+         */
+        fun fromFacelets(facelets: String): CubeState? {
+            if (facelets.length != 54) return null
+            val f = IntArray(54)
+            for (i in 0 until 54) {
+                f[i] = COLORS.indexOf(facelets[i])
+                if (f[i] < 0) return null
+            }
+            val cp = IntArray(8) { -1 }
+            val co = IntArray(8)
+            val ep = IntArray(12) { -1 }
+            val eo = IntArray(12)
+            // см. toCubieCubeInto в facecube.cpp
+            for (i in 0 until 8) {
+                var ori = 0
+                while (ori < 3 && f[CORNER_FACELET[i][ori]] != 0 && f[CORNER_FACELET[i][ori]] != 3) ori++
+                if (ori == 3) return null
+                val col1 = f[CORNER_FACELET[i][(ori + 1) % 3]]
+                val col2 = f[CORNER_FACELET[i][(ori + 2) % 3]]
+                for (j in 0 until 8) {
+                    if (col1 == CORNER_COLOR[j][1] && col2 == CORNER_COLOR[j][2]) {
+                        cp[i] = j
+                        co[i] = ori
+                        break
+                    }
+                }
+            }
+            for (i in 0 until 12) {
+                val a = f[EDGE_FACELET[i][0]]
+                val b = f[EDGE_FACELET[i][1]]
+                for (j in 0 until 12) {
+                    if (a == EDGE_COLOR[j][0] && b == EDGE_COLOR[j][1]) {
+                        ep[i] = j
+                        eo[i] = 0
+                        break
+                    }
+                    if (a == EDGE_COLOR[j][1] && b == EDGE_COLOR[j][0]) {
+                        ep[i] = j
+                        eo[i] = 1
+                        break
+                    }
+                }
+            }
+            if (!isValid(cp, co, ep, eo)) return null
+            var c = 0L
+            var e = 0L
+            for (i in 0 until 8) c = c or (((cp[i] shl 2) or co[i]).toLong() shl (5 * i))
+            for (i in 0 until 12) e = e or (((ep[i] shl 1) or eo[i]).toLong() shl (5 * i))
+            return CubeState(c, e)
+        }
+
+        // Те же проверки, что verify в cubiecube.cpp
+        private fun isValid(cp: IntArray, co: IntArray, ep: IntArray, eo: IntArray): Boolean {
+            if (cp.any { it < 0 } || ep.any { it < 0 }) return false
+            if (cp.distinct().size != 8 || ep.distinct().size != 12) return false
+            if (co.sum() % 3 != 0 || eo.sum() % 2 != 0) return false
+            return parity(cp) == parity(ep)
+        }
+
+        private fun parity(p: IntArray): Int {
+            var s = 0
+            for (i in p.indices) for (j in 0 until i) if (p[j] > p[i]) s++
+            return s % 2
+        }
+    }
+}
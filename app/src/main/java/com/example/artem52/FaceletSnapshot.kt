@@ -0,0 +1,44 @@
+package com.example.artem52
+
+/**
+ * Неизменяемый снимок введённой развёртки: код цвета каждой наклейки (0..5 = URFDLB, [EMPTY_COLOR] для
+ * пробелов и прочих символов) и наклейки, изменившиеся относительно снимка версии [baseVersion].
+ * Строится вне UI-потока и целиком передаётся в GL-поток, где остаётся только перекрасить изменившиеся грани.
+ */
+class FaceletSnapshot private constructor(
+    private val codes: ByteArray,
+    private val changed: IntArray,
+    val version: Int,
+    val baseVersion: Int
+) {
+    val changedCount: Int get() = changed.size
+
+    // Номер k-й изменившейся наклейки
+    fun changedFacelet(k: Int): Int = changed[k]
+
+    operator fun get(facelet: Int): Int = codes[facelet].toInt()
+
+    // Снимок строки input (недостающие символы считаются пустыми) с разницей относительно этого снимка
+    fun next(input: CharSequence): FaceletSnapshot {
+        val next = ByteArray(FACELET_COUNT) { encode(if (it < input.length) input[it] else ' ') }
+        val changed = IntArray(FACELET_COUNT)
+        var n = 0
+        for (i in 0 until FACELET_COUNT) {
+            if (next[i] != codes[i]) changed[n++] = i
+        }
+        return FaceletSnapshot(next, changed.copyOf(n), version + 1, version)
+    }
+
+    companion object {
+        const val FACELET_COUNT = 54
+        const val EMPTY_COLOR = 6
+
+        // Все наклейки пустые; с него начинается цепочка снимков
+        val EMPTY = FaceletSnapshot(ByteArray(FACELET_COUNT) { EMPTY_COLOR.toByte() }, IntArray(0), 0, -1)
+
+        fun encode(c: Char): Byte {
+            val color = "URFDLB".indexOf(c.uppercaseChar())
+            return (if (color < 0) EMPTY_COLOR else color).toByte()
+        }
+    }
+}
@@ -7,9 +7,19 @@ import android.view.View
 import androidx.appcompat.app.AppCompatActivity
 import com.example.artem52.databinding.ActivityMainBinding
 import com.google.android.material.snackbar.Snackbar
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import android.opengl.GLSurfaceView
@@ -31,29 +41,27 @@ class MainActivity : AppCompatActivity() {
     private lateinit var renderer: RotatingCubeRenderer
     private lateinit var binding: ActivityMainBinding
     private var solvingJob: Job? = null
+    private val solverReadyDeferred = CompletableDeferred<Unit>()
+
+    // Завершается, когда таблицы решателя загружены или сгенерированы (исключением, если прогрев не удался)
+    val solverReady: Deferred<Unit> get() = solverReadyDeferred
 
     private var cameraFront = true
     private val frontCameraPosition = floatArrayOf(5f, 5f, 14f)
     private val backCameraPosition = floatArrayOf(-5f, -5f, -14f)
 
-    // Цвета для каждой стороны куба
-    private val colorMap = mapOf(
-        'U' to floatArrayOf(1f, 1f, 1f, 1f),    // Белый
-        'R' to floatArrayOf(1f, 0f, 0f, 1f),    // Красный
-        'F' to floatArrayOf(0f, 1f, 0f, 1f),    // Зеленый
-        'D' to floatArrayOf(1f, 1f, 0f, 1f),    // Желтый
-        'L' to floatArrayOf(1f, 0.5f, 0f, 1f),  // Оранжевый
-        'B' to floatArrayOf(0f, 0f, 1f, 1f),    // Синий
-        ' ' to floatArrayOf(0.2f, 0.2f, 0.2f, 1f) // Серый (невидимые грани)
-    )
+    // Последний введённый текст. Правки, пришедшие до обработки предыдущей, заменяют её (см. startInputPipeline)
+    private val faceletInput = MutableStateFlow<String?>(null)
+    private var inputJob: Job? = null
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         binding = ActivityMainBinding.inflate(layoutInflater)
         setContentView(binding.root)
 
-        renderer = RotatingCubeRenderer().apply {
+        renderer = RotatingCubeRenderer(stickerTexture = STICKER_TEXTURE).apply {
             setCameraPosition(frontCameraPosition)
+            idleSpinFps = IDLE_SPIN_FPS
             // Устанавливаем callback для requestRender
             setRenderRequestCallback {
                 glSurfaceView.requestRender()
@@ -63,12 +71,34 @@ class MainActivity : AppCompatActivity() {
         glSurfaceView = binding.glSurfaceView.apply {
             setEGLContextClientVersion(2)
             setRenderer(renderer)
-            renderMode = GLSurfaceView.RENDERMODE_CONTINUOUSLY
+            // Кадры рисуются по запросу рендерера (изменения, анимация и ограниченное вращение в простое)
+            renderMode = GLSurfaceView.RENDERMODE_WHEN_DIRTY
         }
 
         setupInputListener()
         setupSolveButton()
         setupCameraButton()
+        startSolverWarmUp()
+    }
+    // Таблицы грузятся в фоне. solverReady завершается в любом случае: при ошибке исключением, которое
+    // solveCube показывает вместо бесконечного ожидания.
+    private fun startSolverWarmUp() {
+        val path = cacheDir.path
+        CoroutineScope(Dispatchers.IO).launch {
+            try {
+                warmUpSolver(path, object : SolverWarmUpListener {
+                    override fun onProgress(tablesDone: Int, tablesTotal: Int, bytesDone: Long, bytesTotal: Long) {
+                        Log.d("MainActivity", "Solver tables: $tablesDone/$tablesTotal ($bytesDone/$bytesTotal bytes)")
+                    }
+                })
+                solverReadyDeferred.complete(Unit)
+            } catch (e: Throwable) {
+                Log.e("MainActivity", "Solver warm-up failed", e)
+                solverReadyDeferred.completeExceptionally(
+                    IllegalStateException("Не удалось загрузить таблицы решателя", e)
+                )
+            }
+        }
     }
     private fun setupCameraButton() {
         binding.cameraSwitchButton.setOnClickListener {
@@ -79,12 +109,10 @@ class MainActivity : AppCompatActivity() {
         }
     }
     private fun setupInputListener() {
+        startInputPipeline()
         binding.faceletsInput.addTextChangedListener(object : TextWatcher {
             override fun afterTextChanged(s: Editable?) {
-                s?.toString()?.let { input ->
-                    val paddedInput = input.padEnd(54, ' ')
-                    updateCubeColors(paddedInput)
-                }
+                s?.let { faceletInput.value = it.toString() }
             }
 
             override fun beforeTextChanged(s: CharSequence?, start: Int, count: Int, after: Int) {}
@@ -92,6 +120,21 @@ class MainActivity : AppCompatActivity() {
         })
     }
 
+    // Правки в пределах INPUT_COALESCE_MS сливаются в одну, разница со снимком на экране считается в фоне,
+    // а готовый неизменяемый снимок передаётся в GL-поток. UI-поток кубики не трогает.
+    private fun startInputPipeline() {
+        inputJob = CoroutineScope(Dispatchers.Main).launch {
+            // Последний отданный рендереру снимок; меняется только в этой корутине
+            var shown = FaceletSnapshot.EMPTY
+            faceletInput.filterNotNull().collectLatest { input ->
+                delay(INPUT_COALESCE_MS)
+                val snapshot = withContext(Dispatchers.Default) { shown.next(input) }
+                shown = snapshot
+                glSurfaceView.queueEvent { renderer.applyFacelets(snapshot) }
+            }
+        }
+    }
+
     private fun setupSolveButton() {
         binding.solveButton.setOnClickListener {
             val facelets = binding.faceletsInput.text.toString().trim()
@@ -110,11 +153,24 @@ class MainActivity : AppCompatActivity() {
 
         solvingJob = CoroutineScope(Dispatchers.Main).launch {
             try {
-                val solution = withContext(Dispatchers.Default) {
-                    solveCube(facelets.uppercase(), null)
+                // Не занимаем поток Default, пока таблицы ещё прогреваются
+                solverReady.await()
+                // Первое решение анимируется сразу, поиск более коротких идёт дальше. Проигрываемое решение
+                // показывается отдельно от лучшего найденного, чтобы текст совпадал с ходами на кубе.
+                var playing: MoveSequence? = null
+                solveAnytime(facelets.uppercase()).collect { solution ->
+                    val current = playing
+                    if (current == null) {
+                        playing = solution
+                        showSolution(solution, solution)
+                        animateSolution(solution)
+                    } else {
+                        showSolution(current, solution)
+                    }
                 }
-                showSolution(solution)
-                animateSolution(solution)
+            } catch (e: CancellationException) {
+                // Отмена решения - не ошибка
+                throw e
             } catch (e: Exception) {
                 showError(e.message ?: "Unknown error occurred")
             } finally {
@@ -122,43 +178,51 @@ class MainActivity : AppCompatActivity() {
             }
         }
     }
-    private fun animateSolution(solution: String) {
-        if (solution.isBlank()) return
+    // Поток всё более коротких решений в пределах SOLVE_TIME_BUDGET_MS: первое приходит сразу, как только найдено.
+    // Отмена сбора (например, отмена solvingJob) выставляет нативный флаг отмены, и поиск останавливается.
+    private fun solveAnytime(facelets: String): Flow<MoveSequence> = callbackFlow {
+        val cancellation = SolveCancellation()
+        launch(Dispatchers.Default) {
+            try {
+                val best = solveCube(facelets, null, SOLVE_TIME_BUDGET_MS, cancellation.handle) {
+                    trySend(MoveSequence.wrap(it))
+                }
+                if (best == null) close(IllegalStateException("Не удалось решить")) else close()
+            } finally {
+                cancellation.close()
+            }
+        }
+        awaitClose { cancellation.cancel() }
+    }
 
-        val moves = solution.split(" ").filter { it.isNotBlank() }
-        if (moves.isEmpty()) return
+    private fun animateSolution(solution: MoveSequence) {
+        if (solution.isEmpty()) return
 
-        animateMovesSequentially(moves, 0)
+        animateMovesSequentially(solution, 0)
     }
 
-    private fun animateMovesSequentially(moves: List<String>, index: Int) {
+    private fun animateMovesSequentially(moves: MoveSequence, index: Int) {
         if (index >= moves.size) return
 
         val move = moves[index]
-        val (axis, layer, angle) = parseMove(move)
+        val face = MoveSequence.axis(move)
 
         // Анимируем поворот
-        renderer.startAnimation(axis, layer, angle) {
-            // После завершения анимации применяем ход к состоянию куба
+        renderer.startAnimation(RotatingCubeRenderer.MOVE_AXIS[face], RotatingCubeRenderer.MOVE_LAYER[face], moveAngle(move)) {
+            // Колбэк приходит из GL-потока: там же применяем ход к цветам кубиков (наклейки рендерер переставляет сам)
+            if (!STICKER_TEXTURE) renderer.applyMove(move)
+            // Переходим к следующему ходу
             runOnUiThread {
-                renderer.applyMove(move)
-                // Переходим к следующему ходу
                 animateMovesSequentially(moves, index + 1)
             }
         }
     }
 
-    private fun parseMove(move: String): Triple<Int, Int, Float> {
-        return when {
-            move.contains("U") -> Triple(1, 1, if (move.contains("'")) -90f else if (move.contains("2")) 180f else 90f)
-            move.contains("D") -> Triple(1, -1, if (move.contains("'")) -90f else if (move.contains("2")) 180f else 90f)
-            move.contains("L") -> Triple(0, -1, if (move.contains("'")) -90f else if (move.contains("2")) 180f else 90f)
-            move.contains("R") -> Triple(0, 1, if (move.contains("'")) -90f else if (move.contains("2")) 180f else 90f)
-            move.contains("F") -> Triple(2, 1, if (move.contains("'")) -90f else if (move.contains("2")) 180f else 90f)
-            move.contains("B") -> Triple(2, -1, if (move.contains("'")) -90f else if (move.contains("2")) 180f else 90f)
-            else -> Triple(0, 0, 90f)
-        }
-
+    // Угол анимации хода: 90 по часовой, 180 для двойного, -90 против часовой
+    private fun moveAngle(move: Int): Float = when (MoveSequence.power(move)) {
+        2 -> 180f
+        3 -> -90f
+        else -> 90f
     }
     private fun validateInput(facelets: String): Boolean {
         return when {
@@ -174,96 +238,12 @@ class MainActivity : AppCompatActivity() {
         }
     }
 
-    private fun showSolution(solution: String) {
-        binding.resultTextView.text = if (solution.isEmpty()) "No solution found" else "Solution: $solution"
-    }
-
-    private fun updateCubeColors(facelets: String) {
-        // Сначала сбрасываем все цвета
-        renderer.resetAllCubes()
-
-        // Обновляем цвета согласно вводу
-        facelets.forEachIndexed { index, char ->
-            if (char != ' ') {
-                val color = colorMap[char.uppercaseChar()] ?: colorMap[' ']!!
-                setFaceletColor(index, color)
-            }
-        }
-
-        glSurfaceView.requestRender()
-    }
-    private fun setFaceletColor(faceletIndex: Int, color: FloatArray) {
-        val (cubePos, face) = when (faceletIndex) {
-            // Up face (U1-U9)
-            in 0..8 -> {
-                val x = when (faceletIndex % 3) {
-                    0 -> -1; 1 -> 0; 2 -> 1; else -> 0
-                }
-                val z = when (faceletIndex / 3) {
-                    0 -> 1; 1 -> 0; 2 -> -1; else -> 0
-                }
-                Triple(x, 1, z) to 4 // Up face
-            }
-            // Right face (R1-R9)
-            in 9..17 -> {
-                val y = when ((faceletIndex - 9) % 3) {
-                    0 -> 1; 1 -> 0; 2 -> -1; else -> 0
-                }
-                val z = when ((faceletIndex - 9) / 3) {
-                    0 -> 1; 1 -> 0; 2 -> -1; else -> 0
-                }
-                Triple(1, y, z) to 3 // Right face
-            }
-            // Front face (F1-F9)
-            in 18..26 -> {
-                val x = when ((faceletIndex - 18) % 3) {
-                    0 -> -1; 1 -> 0; 2 -> 1; else -> 0
-                }
-                val y = when ((faceletIndex - 18) / 3) {
-                    0 -> 1; 1 -> 0; 2 -> -1; else -> 0
-                }
-                Triple(x, y, 1) to 0 // Front face
-            }
-            // Down face (D1-D9)
-            in 27..35 -> {
-                val x = when ((faceletIndex - 27) % 3) {
-                    0 -> -1; 1 -> 0; 2 -> 1; else -> 0
-                }
-                val z = when ((faceletIndex - 27) / 3) {
-                    0 -> -1; 1 -> 0; 2 -> 1; else -> 0
-                }
-                Triple(x, -1, z) to 5 // Down face
-            }
-            // Left face (L1-L9)
-            in 36..44 -> {
-                val y = when ((faceletIndex - 36) % 3) {
-                    0 -> 1; 1 -> 0; 2 -> -1; else -> 0
-                }
-                val z = when ((faceletIndex - 36) / 3) {
-                    0 -> 1; 1 -> 0; 2 -> -1; else -> 0
-                }
-                Triple(-1, y, z) to 2 // Left face
-            }
-            // Back face (B1-B9)
-            in 45..53 -> {
-                val x = when ((faceletIndex - 45) % 3) {
-                    0 -> -1; 1 -> 0; 2 -> 1; else -> 0
-                }
-                val y = when ((faceletIndex - 45) / 3) {
-                    0 -> 1; 1 -> 0; 2 -> -1; else -> 0
-                }
-                Triple(x, y, -1) to 1 // Back faceUUUUUUUUURRRRRRRRRFFFFFFFFFDDDDDDDDDLLLLLLLLLBBBBBBBBB
-            }
-            else -> return
-        }
-
-        // Устанавливаем цвет только для внешних кубиков
-        if (abs(cubePos.first) == 1 || abs(cubePos.second) == 1 || abs(cubePos.third) == 1) {
-            renderer.cubes.find { cube ->
-                cube.x == cubePos.first.toFloat() &&
-                        cube.y == cubePos.second.toFloat() &&
-                        cube.z == cubePos.third.toFloat()
-            }?.setFaceColor(face, color)
+    // playing - решение, которое анимируется на кубе, best - самое короткое из найденных
+    private fun showSolution(playing: MoveSequence, best: MoveSequence) {
+        binding.resultTextView.text = when {
+            playing.isEmpty() -> "No solution found"
+            best == playing -> "Solution: $playing"
+            else -> "Solution: $playing\nShorter (${best.size} moves): $best"
         }
     }
 
@@ -277,19 +257,56 @@ class MainActivity : AppCompatActivity() {
         Snackbar.make(binding.root, message, Snackbar.LENGTH_LONG).show()
     }
 
+    override fun onDestroy() {
+        solvingJob?.cancel()
+        inputJob?.cancel()
+        super.onDestroy()
+    }
+
+    override fun onStop() {
+        super.onStop()
+        val path = cacheDir.path
+        CoroutineScope(Dispatchers.IO).launch {
+            SolutionCache.save(path)
+            val stats = SolutionCache.stats
+            Log.d("MainActivity", "Solution cache: ${stats.hits} hits, ${stats.misses} misses, ${stats.size} entries")
+        }
+    }
+
     override fun onPause() {
         super.onPause()
+        renderer.cancelIdleSpin()
         glSurfaceView.onPause()
     }
 
     override fun onResume() {
         super.onResume()
         glSurfaceView.onResume()
+        glSurfaceView.requestRender()
     }
-    private external fun solveCube(facelets: String, pattern: String?): String
+    private external fun solveCube(
+        facelets: String,
+        pattern: String?,
+        timeOutMs: Long,
+        cancelHandle: Long,
+        listener: SolutionListener?
+    ): ByteArray?
+    private external fun warmUpSolver(cacheDir: String, listener: SolverWarmUpListener)
 
 
     companion object {
+        // Сколько решатель ищет более короткие решения после первого (меньше, если короче уже не бывает)
+        private const val SOLVE_TIME_BUDGET_MS = 1000L
+
+        // Окно, в котором правки ввода сливаются в одно обновление (около кадра)
+        private const val INPUT_COALESCE_MS = 16L
+
+        // Кадров в секунду для вращения в простое; 0 выключает вращение
+        private const val IDLE_SPIN_FPS = RotatingCubeRenderer.DEFAULT_IDLE_SPIN_FPS
+
+        // Цвета наклеек в текстуре (ход или ввод - выгрузка 54 байт) вместо цветов в вершинах кубиков
+        private const val STICKER_TEXTURE = true
+
         init {
             System.loadLibrary("cube-solver")
         }
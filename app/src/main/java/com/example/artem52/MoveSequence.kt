@@ -0,0 +1,119 @@
+package com.example.artem52
+
+/**
+ * Последовательность ходов в виде индексов 3 * ось + степень - 1 (0..17), оси в порядке URFDLB:
+ * 0 = U, 1 = U2, 2 = U', 3 = R, ... Та же кодировка, что у решателя, так что решения приходят
+ * из нативного кода как ByteArray без разбора строк. Объект неизменяемый; строка строится только при [toString].
+ */
+class MoveSequence private constructor(private val moves: ByteArray) {
+
+    val size: Int get() = moves.size
+
+    fun isEmpty(): Boolean = moves.isEmpty()
+
+    operator fun get(index: Int): Int = moves[index].toInt()
+
+    // Копия индексов ходов
+    fun toByteArray(): ByteArray = moves.copyOf()
+
+    // Обратная последовательность: ходы в обратном порядке, каждый в обратную сторону
+    fun inverse(): MoveSequence {
+        val n = moves.size
+        return MoveSequence(ByteArray(n) { i -> inverseMove(moves[n - 1 - i].toInt()).toByte() })
+    }
+
+    operator fun plus(other: MoveSequence): MoveSequence = when {
+        other.isEmpty() -> this
+        isEmpty() -> other
+        else -> MoveSequence(moves + other.moves)
+    }
+
+    /**
+     * Сокращает соседние повороты одной грани: "R R" -> "R2", "R2 R" -> "R'", "R R'" исчезает.
+     * После сокращения снова соседние ходы ("R U U' R'") тоже сокращаются.
+     */
+    fun simplify(): MoveSequence {
+        val out = ByteArray(moves.size)
+        var n = 0
+        for (m in moves) {
+            val axis = m / 3
+            if (n > 0 && out[n - 1] / 3 == axis) {
+                // степени 1..3 складываются по модулю 4
+                val power = (out[n - 1] % 3 + 1 + m % 3 + 1) % 4
+                if (power == 0) n-- else out[n - 1] = (3 * axis + power - 1).toByte()
+            } else {
+                out[n++] = m
+            }
+        }
+        return if (n == moves.size) this else MoveSequence(out.copyOf(n))
+    }
+
+    private val formatted: String by lazy(LazyThreadSafetyMode.NONE) {
+        val sb = StringBuilder(moves.size * 3)
+        for (m in moves) {
+            if (sb.isNotEmpty()) sb.append(' ')
+            appendMove(sb, m.toInt())
+        }
+        sb.toString()
+    }
+
+    // Обычная запись "R U2 F'"
+    override fun toString(): String = formatted
+
+    override fun equals(other: Any?): Boolean = other is MoveSequence && moves.contentEquals(other.moves)
+
+    override fun hashCode(): Int = moves.contentHashCode()
+
+    companion object {
+        private const val AXES = "URFDLB"
+
+        val EMPTY = MoveSequence(ByteArray(0))
+
+        // Последовательность из индексов ходов; массив копируется
+        fun of(moves: ByteArray): MoveSequence {
+            for (m in moves) require(m in 0..17) { "Bad move index $m" }
+            return MoveSequence(moves.copyOf())
+        }
+
+        // Для массивов, которые больше никто не изменяет (например, из JNI)
+        internal fun wrap(moves: ByteArray): MoveSequence = MoveSequence(moves)
+
+        // Разбор записи "R U2 F'" (ходы через пробелы)
+        fun parse(text: String): MoveSequence {
+            val out = ByteArray(text.length)
+            var n = 0
+            var i = 0
+            while (i < text.length) {
+                val c = text[i++]
+                if (c == ' ') continue
+                val axis = AXES.indexOf(c.uppercaseChar())
+                require(axis >= 0) { "Bad move '$c' in \"$text\"" }
+                var power = 1
+                if (i < text.length && text[i] == '2') {
+                    power = 2
+                    i++
+                } else if (i < text.length && text[i] == '\'') {
+                    power = 3
+                    i++
+                }
+                out[n++] = (3 * axis + power - 1).toByte()
+            }
+            return MoveSequence(out.copyOf(n))
+        }
+
+        // Ось хода (0..5, URFDLB) и степень (1, 2, 3 = против часовой)
+        fun axis(move: Int): Int = move / 3
+
+        fun power(move: Int): Int = move % 3 + 1
+
+        fun inverseMove(move: Int): Int = 3 * (move / 3) + 2 - move % 3
+
+        fun appendMove(sb: StringBuilder, move: Int) {
+            sb.append(AXES[move / 3])
+            when (move % 3) {
+                1 -> sb.append('2')
+                2 -> sb.append('\'')
+            }
+        }
+    }
+}
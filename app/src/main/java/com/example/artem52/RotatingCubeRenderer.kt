@@ -11,29 +11,39 @@ import android.util.Log
 
 import java.util.Arrays
 import java.util.HashMap
-import java.nio.ByteBuffer
-import java.nio.ByteOrder
 import java.nio.FloatBuffer
-import java.nio.ShortBuffer
 import kotlin.random.Random
 import android.os.Handler
 import android.os.Looper
 import kotlin.math.abs
+import kotlin.math.roundToInt
 
 
 
 
-class RotatingCubeRenderer : GLSurfaceView.Renderer {
+// stickerTexture - рисовать по состоянию наклеек (StickerBatch): цвета 54 наклеек лежат в текстуре, а ход или новая
+// развёртка выгружают 54 байта. Иначе цвета хранятся в вершинах кубиков (CubeBatch).
+class RotatingCubeRenderer(private val stickerTexture: Boolean = false) : GLSurfaceView.Renderer {
     val cubes = mutableListOf<Cube>() // Делаем cubes публичным
     private val projectionMatrix = FloatArray(16)
     private val viewMatrix = FloatArray(16)
     private val modelMatrix = FloatArray(16)
-    private val mvpMatrix = FloatArray(16)
+    private val viewProjectionMatrix = FloatArray(16)
+    // Преобразования всех кубиков подряд по Cube.id для uModel
+    private val cubeModelMatrices = FloatArray(CubeBatch.MAX_CUBES * 16)
+    private val cubeMatrix = FloatArray(16)
+    private val batch = CubeBatch()
+    private val stickerBatch = StickerBatch()
     private var cameraPosition = floatArrayOf(5f, 5f, 14f)
     private var shaderProgram = 0
     private var positionHandle = 0
     private var colorHandle = 0
-    private var mvpMatrixHandle = 0
+    private var cubieHandle = 0
+    private var viewProjectionHandle = 0
+    private var modelMatricesHandle = 0
+    private var stickerHandle = 0
+    private var stickersHandle = 0
+    private var paletteHandle = 0
     private var animating = false
     private var currentAnimation: AnimationData? = null
     private var animationProgress = 0f
@@ -42,10 +52,26 @@ class RotatingCubeRenderer : GLSurfaceView.Renderer {
     private val frameTime = 1000
     private val animationDuration = 2000 // milliseconds
     private var requestRender: (() -> Unit)? = null
+
+    // Частота кадров вращения в простое (0 - не вращать). Поверхность работает в RENDERMODE_WHEN_DIRTY: кадры
+    // рисуются по изменению состояния, подряд во время анимации хода и не чаще idleSpinFps в простое.
+    var idleSpinFps = DEFAULT_IDLE_SPIN_FPS
+    private val spinHandler = Handler(Looper.getMainLooper())
+    @Volatile private var spinFrameScheduled = false
+    private val spinFrame = Runnable {
+        spinFrameScheduled = false
+        requestRender?.invoke()
+    }
     private var currentAngle = 0f
     private var isSolving = false
     private var baseRotationAngle = 0f
     private lateinit var rubikManager: RubikCubeManager
+    // Версия снимка ввода, цвета которого сейчас на гранях; -1, если грани с тех пор менялись ходами
+    @Volatile private var appliedInputVersion = -1
+    // Кубики по позиции; обновляется при каждом перемещении кубиков
+    private val grid = CubeGrid()
+    // Вложенность beginColorUpdate/commitColorUpdate; меняется только в GL-потоке
+    private var colorUpdateDepth = 0
     // Функция для изменения цвета внешних граней
     fun setOuterFacesColor(r: Float, g: Float, b: Float, a: Float) {
         cubes.forEach { cube ->
@@ -61,20 +87,24 @@ class RotatingCubeRenderer : GLSurfaceView.Renderer {
         val targetAngle: Float,
         var currentAngle: Float = 0f, // Добавляем currentAngle
         val startTime: Long,
-        val cubesToRotate: List<Cube>,
+        val cubesMask: Int, // бит Cube.id для каждого вращаемого кубика
+        val slotsMask: Int, // бит слота CubeGrid для каждой позиции вращаемого слоя
+        val move: Int, // индекс хода (см. MoveSequence), -1 для среднего слоя
         val callback: () -> Unit // Добавляем callback параметр
     )
     fun setRenderRequestCallback(callback: () -> Unit) {
         this.requestRender = callback
     }
     private val vertexShader = """
-        uniform mat4 uMVPMatrix;
+        uniform mat4 uViewProjection;
+        uniform mat4 uModel[${CubeBatch.MAX_CUBES}];
         attribute vec4 vPosition;
+        attribute float aCubie;
         attribute vec4 vColor;
         varying vec4 fColor;
         void main() {
             fColor = vColor;
-            gl_Position = uMVPMatrix * vPosition;
+            gl_Position = uViewProjection * uModel[int(aCubie)] * vPosition;
         }
     """.trimIndent()
 
@@ -86,26 +116,54 @@ class RotatingCubeRenderer : GLSurfaceView.Renderer {
         }
     """.trimIndent()
 
+    // Режим stickerTexture: uModel индексируется слотом, цвет берётся из текстуры наклеек через палитру.
+    // Все вершины грани несут одну наклейку, поэтому интерполированный fSticker на грани постоянен.
+    private val stickerVertexShader = """
+        uniform mat4 uViewProjection;
+        uniform mat4 uModel[${StickerBatch.SLOTS}];
+        attribute vec4 vPosition;
+        attribute float aCubie;
+        attribute float aSticker;
+        varying float fSticker;
+        void main() {
+            fSticker = aSticker;
+            gl_Position = uViewProjection * uModel[int(aCubie)] * vPosition;
+        }
+    """.trimIndent()
+
+    private val stickerFragmentShader = """
+        precision mediump float;
+        uniform sampler2D uStickers;
+        uniform sampler2D uPalette;
+        varying float fSticker;
+        void main() {
+            float color = floor(texture2D(uStickers, vec2((fSticker + 0.5) / ${StickerBatch.STICKER_TEXTURE_WIDTH}.0, 0.5)).r * 255.0 + 0.5);
+            gl_FragColor = texture2D(uPalette, vec2((color + 0.5) / ${StickerBatch.PALETTE_SIZE}.0, 0.5));
+        }
+    """.trimIndent()
+
     override fun onSurfaceCreated(gl: GL10?, config: EGLConfig?) {
         // Фиолетовый фон
         GLES20.glClearColor(0.5f, 0.0f, 0.5f, 1.0f)
         GLES20.glEnable(GLES20.GL_DEPTH_TEST)
 
-        // Создаем 27 кубов (3x3x3)
+        // Создаем 27 кубов (3x3x3); при пересоздании поверхности старые не копятся, Cube.id остаются 0..26
+        cubes.clear()
         for (x in -1..1) {
             for (y in -1..1) {
                 for (z in -1..1) {
-                    val cube = Cube()
+                    val cube = Cube(cubes.size)
                     cube.setPosition(x.toFloat(), y.toFloat(), z.toFloat())
-                    cube.setColor(0f, 0f, 0f, 1f) // Черный цвет
+                    grid.place(cube)
                     cubes.add(cube)
                 }
             }
         }
 
         // Инициализация шейдеров
-        val vertexShaderId = loadShader(GLES20.GL_VERTEX_SHADER, vertexShader)
-        val fragmentShaderId = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShader)
+        val vertexShaderId = loadShader(GLES20.GL_VERTEX_SHADER, if (stickerTexture) stickerVertexShader else vertexShader)
+        val fragmentShaderId =
+            loadShader(GLES20.GL_FRAGMENT_SHADER, if (stickerTexture) stickerFragmentShader else fragmentShader)
 
         shaderProgram = GLES20.glCreateProgram().also {
             GLES20.glAttachShader(it, vertexShaderId)
@@ -114,16 +172,117 @@ class RotatingCubeRenderer : GLSurfaceView.Renderer {
         }
 
         positionHandle = GLES20.glGetAttribLocation(shaderProgram, "vPosition")
-        colorHandle = GLES20.glGetAttribLocation(shaderProgram, "vColor")
-        mvpMatrixHandle = GLES20.glGetUniformLocation(shaderProgram, "uMVPMatrix")
+        cubieHandle = GLES20.glGetAttribLocation(shaderProgram, "aCubie")
+        viewProjectionHandle = GLES20.glGetUniformLocation(shaderProgram, "uViewProjection")
+        modelMatricesHandle = GLES20.glGetUniformLocation(shaderProgram, "uModel")
+        if (stickerTexture) {
+            stickerHandle = GLES20.glGetAttribLocation(shaderProgram, "aSticker")
+            stickersHandle = GLES20.glGetUniformLocation(shaderProgram, "uStickers")
+            paletteHandle = GLES20.glGetUniformLocation(shaderProgram, "uPalette")
+            stickerBatch.create(STICKER_OF_FACE)
+        } else {
+            colorHandle = GLES20.glGetAttribLocation(shaderProgram, "vColor")
+            batch.create(cubes.size)
+        }
         rubikManager = RubikCubeManager(cubes)
         rubikManager.initializeColors()
     }
+    // Массовое изменение цветов: между beginColorUpdate и commitColorUpdate изменения граней только отмечаются
+    // в кубиках, а commit один раз записывает изменённые грани в общий буфер цветов CubeBatch, который выгружается
+    // на GPU одним glBufferSubData в следующем кадре. Пары могут быть вложенными, записывает внешний commit.
+    // Как и все изменения цветов кубиков (applyMove, applyFacelets, resetAllCubes), вызываются только в GL-потоке
+    // (GLSurfaceView.queueEvent или колбэк анимации), иначе счётчик вложенности и кадр гоняются за cubes.
+    fun beginColorUpdate() {
+        colorUpdateDepth++
+    }
+
+    fun commitColorUpdate() {
+        if (--colorUpdateDepth == 0) {
+            batch.commit(cubes)
+            requestRender?.invoke()
+        }
+    }
+
+    private inline fun colorUpdate(action: () -> Unit) {
+        beginColorUpdate()
+        try {
+            action()
+        } finally {
+            commitColorUpdate()
+        }
+    }
+
     fun resetAllCubes() {
-        cubes.forEach { it.resetFaces() }
+        if (stickerTexture) {
+            for (i in 0 until FaceletSnapshot.FACELET_COUNT) stickerBatch.set(i, FaceletSnapshot.EMPTY_COLOR)
+            requestRender?.invoke()
+            return
+        }
+        colorUpdate { cubes.forEach { it.resetFaces() } }
+        appliedInputVersion = -1
+    }
+
+    // Перекрашивает грани по снимку ввода. Вызывается только в GL-потоке (GLSurfaceView.queueEvent), поэтому
+    // cubes меняется из одного потока. Если на гранях снимок baseVersion, перекрашиваются только изменившиеся
+    // наклейки, иначе весь куб.
+    fun applyFacelets(snapshot: FaceletSnapshot) {
+        if (stickerTexture) {
+            // Текстура наклеек и есть состояние, поэтому всегда достаточно разницы со снимком, который его задал
+            if (snapshot.baseVersion == appliedInputVersion) {
+                for (k in 0 until snapshot.changedCount) {
+                    val facelet = snapshot.changedFacelet(k)
+                    stickerBatch.set(facelet, snapshot[facelet])
+                }
+            } else {
+                for (i in 0 until FaceletSnapshot.FACELET_COUNT) stickerBatch.set(i, snapshot[i])
+            }
+            appliedInputVersion = snapshot.version
+            requestRender?.invoke()
+            return
+        }
+        if (cubes.isEmpty()) return
+        colorUpdate {
+            if (snapshot.baseVersion == appliedInputVersion) {
+                for (k in 0 until snapshot.changedCount) paintFacelet(snapshot, snapshot.changedFacelet(k))
+            } else {
+                cubes.forEach { it.resetFaces() }
+                for (i in 0 until FaceletSnapshot.FACELET_COUNT) paintFacelet(snapshot, i)
+            }
+        }
+        appliedInputVersion = snapshot.version
+        requestRender?.invoke()
+    }
+
+    private fun paintFacelet(snapshot: FaceletSnapshot, facelet: Int) {
+        val slot = FACELET_SLOTS[facelet]
+        grid[slot / 6].setFaceColor(slot % 6, FACELET_COLORS[snapshot[facelet]])
     }
+
+    // move - индекс хода 3 * ось + степень - 1 (см. MoveSequence). Вызывается в GL-потоке.
+    fun applyMove(move: Int) {
+        if (stickerTexture) {
+            stickerBatch.permute(STICKER_MOVES[move])
+            appliedInputVersion = -1
+            requestRender?.invoke()
+            return
+        }
+        colorUpdate { rubikManager.applyMove(move) }
+        grid.reindex(cubes)
+        appliedInputVersion = -1
+        requestRender?.invoke()
+    }
+
     fun applyMove(move: String) {
-        rubikManager.applyMove(move)
+        val moves = MoveSequence.parse(move)
+        if (stickerTexture) {
+            for (i in 0 until moves.size) applyMove(moves[i])
+            return
+        }
+        colorUpdate {
+            for (i in 0 until moves.size) rubikManager.applyMove(moves[i])
+        }
+        grid.reindex(cubes)
+        appliedInputVersion = -1
         requestRender?.invoke()
     }
 
@@ -143,13 +302,26 @@ class RotatingCubeRenderer : GLSurfaceView.Renderer {
     fun startAnimation(axis: Int, layer: Int, angle: Float, callback: () -> Unit) {
         isSolving = true // Останавливаем базовое вращение
 
-        val cubesToRotate = cubes.filter { cube ->
-            when (axis) {
-                0 -> cube.x == layer.toFloat() // X axis (L/R)
-                1 -> cube.y == layer.toFloat() // Y axis (U/D)
-                2 -> cube.z == layer.toFloat() // Z axis (F/B)
-                else -> false
-            }
+        var cubesMask = 0
+        var slotsMask = 0
+        for (slot in CubeGrid.layerSlots(axis, layer)) {
+            cubesMask = cubesMask or (1 shl grid[slot].id)
+            slotsMask = slotsMask or (1 shl slot)
+        }
+
+        val face = when {
+            axis == 0 && layer == -1 -> 4 // L
+            axis == 0 && layer == 1 -> 1  // R
+            axis == 1 && layer == -1 -> 3 // D
+            axis == 1 && layer == 1 -> 0  // U
+            axis == 2 && layer == -1 -> 5 // B
+            axis == 2 && layer == 1 -> 2  // F
+            else -> -1
+        }
+        val power = when {
+            abs(angle) == 180f -> 2
+            angle < 0 -> 3
+            else -> 1
         }
 
         animating = true
@@ -158,92 +330,49 @@ class RotatingCubeRenderer : GLSurfaceView.Renderer {
             layer = layer,
             targetAngle = angle,
             startTime = SystemClock.uptimeMillis(),
-            cubesToRotate = cubesToRotate,
+            cubesMask = cubesMask,
+            slotsMask = slotsMask,
+            move = if (face >= 0) 3 * face + power - 1 else -1,
             callback = {
-                applyMove(when {
-                    axis == 0 && layer == -1 -> "L${if (angle < 0) "'" else ""}"
-                    axis == 0 && layer == 1 -> "R${if (angle < 0) "'" else ""}"
-                    axis == 1 && layer == -1 -> "D${if (angle < 0) "'" else ""}"
-                    axis == 1 && layer == 1 -> "U${if (angle < 0) "'" else ""}"
-                    axis == 2 && layer == -1 -> "B${if (angle < 0) "'" else ""}"
-                    axis == 2 && layer == 1 -> "F${if (angle < 0) "'" else ""}"
-                    else -> ""
-                })
+                // В режиме stickerTexture наклейки уже переставлены в updateAnimation
+                if (face >= 0 && !stickerTexture) applyMove(3 * face + if (angle < 0) 2 else 0)
                 callback()
             }
         )
 
         requestRender?.invoke()
     }
-    private fun applyMoveToCubes(axis: Int, layer: Int, angle: Float, cubesToRotate: List<Cube>) {
+    private fun applyMoveToCubes(axis: Int, layer: Int, angle: Float, cubesMask: Int) {
         val rotationAngle = if (abs(angle) == 180f) angle/2 else angle
+        val positive = rotationAngle > 0
 
         // Вращаем позиции кубиков
-        cubesToRotate.forEach { cube ->
-            val (x, y, z) = when (axis) {
-                // X axis rotation (L/R)
-                0 -> Triple(
-                    cube.x,
-                    if (rotationAngle > 0) -cube.z else cube.z,
-                    if (rotationAngle > 0) cube.y else -cube.y
-                )
-                // Y axis rotation (U/D)
-                1 -> Triple(
-                    if (rotationAngle > 0) cube.z else -cube.z,
-                    cube.y,
-                    if (rotationAngle > 0) -cube.x else cube.x
-                )
-                // Z axis rotation (F/B)
-                else -> Triple(
-                    if (rotationAngle > 0) -cube.y else cube.y,
-                    if (rotationAngle > 0) cube.x else -cube.x,
-                    cube.z
-                )
-            }
-            cube.setPosition(x.toFloat(), y.toFloat(), z.toFloat())
+        forEachInMask(cubesMask) { cube ->
+            val x = cube.x
+            val y = cube.y
+            val z = cube.z
+            when (axis) {
+                0 -> cube.setPosition(x, if (positive) -z else z, if (positive) y else -y) // X axis rotation (L/R)
+                1 -> cube.setPosition(if (positive) z else -z, y, if (positive) -x else x) // Y axis rotation (U/D)
+                else -> cube.setPosition(if (positive) -y else y, if (positive) x else -x, z) // Z axis rotation (F/B)
+            }
         }
+        // Слой переставляется внутри себя, поэтому достаточно переписать его слоты
+        forEachInMask(cubesMask) { grid.place(it) }
 
         // Обновляем цвета граней после поворота
-        cubesToRotate.forEach { cube ->
-            val newColors = Array(6) { floatArrayOf(0f, 0f, 0f, 1f) }
-            val colors = cube.getFaceColors()
-
-            when (axis) {
-                // X axis rotation (L/R)
-                0 -> {
-                    newColors[0] = if (rotationAngle > 0) colors[4] else colors[5] // Front
-                    newColors[1] = if (rotationAngle > 0) colors[5] else colors[4] // Back
-                    newColors[2] = colors[2] // Left
-                    newColors[3] = colors[3] // Right
-                    newColors[4] = if (rotationAngle > 0) colors[1] else colors[0] // Up
-                    newColors[5] = if (rotationAngle > 0) colors[0] else colors[1] // Down
-                }
-                // Y axis rotation (U/D)
-                1 -> {
-                    newColors[0] = if (rotationAngle > 0) colors[2] else colors[3] // Front
-                    newColors[1] = if (rotationAngle > 0) colors[3] else colors[2] // Back
-                    newColors[2] = if (rotationAngle > 0) colors[1] else colors[0] // Left
-                    newColors[3] = if (rotationAngle > 0) colors[0] else colors[1] // Right
-                    newColors[4] = colors[4] // Up
-                    newColors[5] = colors[5] // Down
-                }
-                // Z axis rotation (F/B)
-                else -> {
-                    newColors[0] = colors[0] // Front
-                    newColors[1] = colors[1] // Back
-                    newColors[2] = if (rotationAngle > 0) colors[5] else colors[4] // Left
-                    newColors[3] = if (rotationAngle > 0) colors[4] else colors[5] // Right
-                    newColors[4] = if (rotationAngle > 0) colors[2] else colors[3] // Up
-                    newColors[5] = if (rotationAngle > 0) colors[3] else colors[2] // Down
-                }
-            }
+        val faceSources = FACE_ROTATIONS[2 * axis.coerceIn(0, 2) + if (positive) 0 else 1]
+        colorUpdate {
+            forEachInMask(cubesMask) { it.permuteFaces(faceSources) }
+        }
+    }
 
-            // Устанавливаем новые цвета
-            for (i in 0..5) {
-                cube.setFaceColor(i, newColors[i])
-            }
+    private inline fun forEachInMask(mask: Int, action: (Cube) -> Unit) {
+        for (id in cubes.indices) {
+            if (mask and (1 shl id) != 0) action(cubes[id])
         }
     }
+
     private fun updateAnimation() {
         currentAnimation?.let { anim ->
             val currentTime = SystemClock.uptimeMillis()
@@ -255,7 +384,15 @@ class RotatingCubeRenderer : GLSurfaceView.Renderer {
                 requestRender?.invoke()
             } else {
                 anim.currentAngle = anim.targetAngle
-                applyMoveToCubes(anim.axis, anim.layer, anim.targetAngle, anim.cubesToRotate)
+                if (stickerTexture) {
+                    // В том же кадре, что и конец анимации: иначе слой на кадр вернулся бы к старым наклейкам
+                    if (anim.move >= 0) {
+                        stickerBatch.permute(STICKER_MOVES[anim.move])
+                        appliedInputVersion = -1
+                    }
+                } else {
+                    applyMoveToCubes(anim.axis, anim.layer, anim.targetAngle, anim.cubesMask)
+                }
 
                 animating = false
                 currentAnimation = null
@@ -279,41 +416,151 @@ class RotatingCubeRenderer : GLSurfaceView.Renderer {
             Matrix.rotateM(modelMatrix, 0, baseRotationAngle, 0f, 1f, 0f)
         }
 
-        // Отрисовка всех кубов
-        cubes.forEach { cube ->
-            val cubeModelMatrix = FloatArray(16).apply {
-                Matrix.setIdentityM(this, 0)
-
-                // Применяем анимацию стороны, если кубик в текущей анимации
-                currentAnimation?.let { anim ->
-                    if (anim.cubesToRotate.contains(cube)) {
-                        // Вращение вокруг центральной оси всей стороны
-                        when (anim.axis) {
-                            0 -> { // X-ось (L/R)
-                                Matrix.rotateM(this, 0, anim.currentAngle, 1f, 0f, 0f)
-                            }
-                            1 -> { // Y-ось (U/D)
-                                Matrix.rotateM(this, 0, anim.currentAngle, 0f, 1f, 0f)
-                            }
-                            2 -> { // Z-ось (F/B)
-                                Matrix.rotateM(this, 0, anim.currentAngle, 0f, 0f, 1f)
-                            }
-                        }
-                    }
-                }
+        // Преобразования всех кубов. Циклы ничего не выделяют:
+        // матрицы - поля рендерера, хэндлы получены при линковке программы.
+        val anim = currentAnimation
+        if (stickerTexture) {
+            // Кубики стоят в своих слотах, ходы меняют только наклейки
+            for (slot in 0 until StickerBatch.SLOTS) {
+                val animated = anim != null && anim.slotsMask and (1 shl slot) != 0
+                setCubeMatrix(slot, if (animated) anim else null, slot / 9 - 1f, slot / 3 % 3 - 1f, slot % 3 - 1f)
+            }
+        } else {
+            for (i in cubes.indices) {
+                val cube = cubes[i]
+                val animated = anim != null && anim.cubesMask and (1 shl cube.id) != 0
+                setCubeMatrix(cube.id, if (animated) anim else null, cube.x, cube.y, cube.z)
+            }
+            // Изменения цветов вне beginColorUpdate/commitColorUpdate (незавершённую пачку не трогаем)
+            if (colorUpdateDepth == 0) batch.commit(cubes)
+        }
+
+        // Весь куб одним вызовом
+        Matrix.multiplyMM(viewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0)
+        GLES20.glUniformMatrix4fv(viewProjectionHandle, 1, false, viewProjectionMatrix, 0)
+        if (stickerTexture) {
+            GLES20.glUniformMatrix4fv(modelMatricesHandle, StickerBatch.SLOTS, false, cubeModelMatrices, 0)
+            stickerBatch.draw(positionHandle, cubieHandle, stickerHandle, stickersHandle, paletteHandle)
+        } else {
+            GLES20.glUniformMatrix4fv(modelMatricesHandle, cubes.size, false, cubeModelMatrices, 0)
+            batch.draw(positionHandle, cubieHandle, colorHandle)
+        }
+
+        scheduleNextFrame()
+    }
+
+    // Матрица uModel[index]: поворот анимируемого слоя anim (если не null), затем позиция кубика
+    private fun setCubeMatrix(index: Int, anim: AnimationData?, x: Float, y: Float, z: Float) {
+        Matrix.setIdentityM(cubeMatrix, 0)
 
-                // Позиция кубика
-                Matrix.translateM(this, 0, cube.x, cube.y, cube.z)
-                Matrix.multiplyMM(this, 0, modelMatrix, 0, this, 0)
+        // Вращение вокруг центральной оси всей стороны
+        if (anim != null) {
+            when (anim.axis) {
+                0 -> Matrix.rotateM(cubeMatrix, 0, anim.currentAngle, 1f, 0f, 0f) // X-ось (L/R)
+                1 -> Matrix.rotateM(cubeMatrix, 0, anim.currentAngle, 0f, 1f, 0f) // Y-ось (U/D)
+                2 -> Matrix.rotateM(cubeMatrix, 0, anim.currentAngle, 0f, 0f, 1f) // Z-ось (F/B)
             }
+        }
 
-            Matrix.multiplyMM(mvpMatrix, 0, viewMatrix, 0, cubeModelMatrix, 0)
-            Matrix.multiplyMM(mvpMatrix, 0, projectionMatrix, 0, mvpMatrix, 0)
+        // Позиция кубика
+        Matrix.translateM(cubeMatrix, 0, x, y, z)
+        Matrix.multiplyMM(cubeModelMatrices, index * 16, modelMatrix, 0, cubeMatrix, 0)
+    }
 
-            cube.draw(mvpMatrix, positionHandle, colorHandle, mvpMatrixHandle)
+    // Следующий кадр: сразу, пока идёт анимация, через 1 / idleSpinFps секунды при вращении в простое,
+    // иначе только по requestRender от изменения состояния
+    private fun scheduleNextFrame() {
+        if (currentAnimation != null) {
+            requestRender?.invoke()
+        } else if (!isSolving && idleSpinFps > 0 && !spinFrameScheduled) {
+            spinFrameScheduled = true
+            spinHandler.postDelayed(spinFrame, 1000L / idleSpinFps)
         }
     }
 
+    // Снимает запланированный кадр вращения (например, в onPause); следующий requestRender возобновит его
+    fun cancelIdleSpin() {
+        spinHandler.removeCallbacks(spinFrame)
+        spinFrameScheduled = false
+    }
+
+    companion object {
+        const val DEFAULT_IDLE_SPIN_FPS = 15
+
+        // Цвета наклеек по коду FaceletSnapshot (URFDLB), последний - для пустых наклеек
+        private val FACELET_COLORS = arrayOf(
+            floatArrayOf(1f, 1f, 1f, 1f),       // Белый
+            floatArrayOf(1f, 0f, 0f, 1f),       // Красный
+            floatArrayOf(0f, 1f, 0f, 1f),       // Зеленый
+            floatArrayOf(1f, 1f, 0f, 1f),       // Желтый
+            floatArrayOf(1f, 0.5f, 0f, 1f),     // Оранжевый
+            floatArrayOf(0f, 0f, 1f, 1f),       // Синий
+            floatArrayOf(0.2f, 0.2f, 0.2f, 1f)  // Серый
+        )
+
+        // Кубик * 6 + грань, на которых видна каждая наклейка
+        private val FACELET_SLOTS = IntArray(FaceletSnapshot.FACELET_COUNT) { faceletSlot(it) }
+
+        private fun faceletSlot(facelet: Int): Int {
+            val col = facelet % 3 - 1     // -1, 0, 1 слева направо
+            val row = 1 - facelet % 9 / 3 // 1, 0, -1 сверху вниз
+            return when (facelet / 9) {
+                0 -> slot(col, 1, row, RubikCubeManager.UP)
+                1 -> slot(1, -col, row, RubikCubeManager.RIGHT)
+                2 -> slot(col, row, 1, RubikCubeManager.FRONT)
+                3 -> slot(col, -1, -row, RubikCubeManager.DOWN)
+                4 -> slot(-1, -col, row, RubikCubeManager.LEFT)
+                else -> slot(col, row, -1, RubikCubeManager.BACK)
+            }
+        }
+
+        // Новая грань i кубика берёт цвет старой грани FACE_ROTATIONS[2 * axis + (0 при angle > 0, иначе 1)][i]
+        // (порядок граней front, back, left, right, up, down)
+        private val FACE_ROTATIONS = arrayOf(
+            intArrayOf(4, 5, 2, 3, 1, 0), intArrayOf(5, 4, 2, 3, 0, 1), // X
+            intArrayOf(2, 3, 1, 0, 4, 5), intArrayOf(3, 2, 0, 1, 4, 5), // Y
+            intArrayOf(0, 1, 4, 5, 3, 2), intArrayOf(0, 1, 5, 4, 2, 3)  // Z
+        )
+
+        // Наклейка на грани face кубика в слоте slot (индекс slot * 6 + face), -1 для внутренних граней
+        private val STICKER_OF_FACE = IntArray(StickerBatch.SLOTS * 6) { -1 }.also {
+            for (facelet in 0 until FaceletSnapshot.FACELET_COUNT) it[FACELET_SLOTS[facelet]] = facelet
+        }
+
+        // Ось вращения (0 = x, 1 = y, 2 = z) и слой для граней URFDLB; ход со степенью 1 - поворот на +90 градусов
+        val MOVE_AXIS = intArrayOf(1, 0, 2, 1, 0, 2)
+        val MOVE_LAYER = intArrayOf(1, 1, 1, -1, -1, -1)
+
+        // STICKER_MOVES[move][i] - наклейка, цвет которой ход move переносит на наклейку i. Повороты те же, что
+        // применяет к кубикам applyMoveToCubes.
+        private val STICKER_MOVES = Array(18) { move ->
+            val face = MoveSequence.axis(move)
+            val quarter = quarterTurnSources(MOVE_AXIS[face], MOVE_LAYER[face], MoveSequence.power(move) != 3)
+            if (MoveSequence.power(move) == 2) IntArray(quarter.size) { quarter[quarter[it]] } else quarter
+        }
+
+        private fun quarterTurnSources(axis: Int, layer: Int, positive: Boolean): IntArray {
+            val sources = IntArray(FaceletSnapshot.FACELET_COUNT) { it }
+            val faceSources = FACE_ROTATIONS[2 * axis + if (positive) 0 else 1]
+            for (facelet in 0 until FaceletSnapshot.FACELET_COUNT) {
+                val slot = FACELET_SLOTS[facelet] / 6
+                val x = slot / 9 - 1
+                val y = slot / 3 % 3 - 1
+                val z = slot % 3 - 1
+                val target = when (axis) {
+                    0 -> if (x != layer) continue else CubeGrid.slotOf(x, if (positive) -z else z, if (positive) y else -y)
+                    1 -> if (y != layer) continue else CubeGrid.slotOf(if (positive) z else -z, y, if (positive) -x else x)
+                    else -> if (z != layer) continue else CubeGrid.slotOf(if (positive) -y else y, if (positive) x else -x, z)
+                }
+                val targetFace = faceSources.indexOf(FACELET_SLOTS[facelet] % 6)
+                sources[STICKER_OF_FACE[target * 6 + targetFace]] = facelet
+            }
+            return sources
+        }
+
+        private fun slot(x: Int, y: Int, z: Int, face: Int) = ((x + 1) * 9 + (y + 1) * 3 + z + 1) * 6 + face
+    }
+
     private fun loadShader(type: Int, shaderCode: String): Int {
         return GLES20.glCreateShader(type).also { shader ->
             GLES20.glShaderSource(shader, shaderCode)
@@ -328,23 +575,31 @@ class RotatingCubeRenderer : GLSurfaceView.Renderer {
     }
 }
 
-class Cube {
-    private val vertexBuffer: FloatBuffer
-    private val colorBuffer: FloatBuffer
-    private val indexBuffer: ShortBuffer
+class Cube(val id: Int = 0) {
+    // Грани (бит на грань), изменённые с последнего CubeBatch.commit; сначала записываются все
+    var dirtyFaces = ALL_FACES
+        private set
     private val faceSegments = Array(6) { Array(9) { FloatArray(4) } }
     var x = 0f
     var y = 0f
     var z = 0f
     fun setSegmentColor(face: Int, segment: Int, color: FloatArray) {
         System.arraycopy(color, 0, faceSegments[face][segment], 0, 4)
-        updateColorBuffer()
+        dirtyFaces = dirtyFaces or (1 shl face)
     }
     fun getSegmentColor(face: Int, segment: Int): FloatArray {
         return faceSegments[face][segment].copyOf()
     }
     companion object {
-        private val vertices = floatArrayOf(
+        const val VERTEX_COUNT = 24
+        // Цвета одного кубика: RGBA каждой вершины, по 4 вершины на грань
+        const val COLOR_FLOATS = VERTEX_COUNT * 4
+        const val FACE_FLOATS = 4 * 4
+        const val ALL_FACES = 0x3f
+
+        private val RESET_COLOR = floatArrayOf(0.2f, 0.2f, 0.2f, 1f)
+
+        val vertices = floatArrayOf(
             -0.4f, -0.4f, 0.4f,  0.4f, -0.4f, 0.4f,
             0.4f, 0.4f, 0.4f,  -0.4f, 0.4f, 0.4f,
             -0.4f, -0.4f, -0.4f,  -0.4f, 0.4f, -0.4f,
@@ -359,143 +614,121 @@ class Cube {
             0.4f, -0.4f, 0.4f,  -0.4f, -0.4f, 0.4f
         )
 
-        private val indices = shortArrayOf(
+        val indices = shortArrayOf(
             0, 1, 2, 0, 2, 3, 4, 5, 6, 4, 6, 7,
             8, 9, 10, 8, 10, 11, 12, 13, 14, 12, 14, 15,
             16, 17, 18, 16, 18, 19, 20, 21, 22, 20, 22, 23
         )
     }
 
-    init {
-        vertexBuffer = ByteBuffer
-            .allocateDirect(vertices.size * 4)
-            .order(ByteOrder.nativeOrder())
-            .asFloatBuffer()
-            .apply { put(vertices).position(0) }
-
-        // Изначально черный цвет
-        val initialColor = FloatArray(24 * 4)
-        colorBuffer = ByteBuffer
-            .allocateDirect(initialColor.size * 4)
-            .order(ByteOrder.nativeOrder())
-            .asFloatBuffer()
-            .apply { put(initialColor).position(0) }
-
-        indexBuffer = ByteBuffer
-            .allocateDirect(indices.size * 2)
-            .order(ByteOrder.nativeOrder())
-            .asShortBuffer()
-            .apply { put(indices).position(0) }
-    }
+    // Слот в CubeGrid, соответствующий текущей позиции
+    var slot = CubeGrid.slotOf(0, 0, 0)
+        private set
 
     fun setPosition(x: Float, y: Float, z: Float) {
         this.x = x
         this.y = y
         this.z = z
+        slot = CubeGrid.slotOf(x.roundToInt(), y.roundToInt(), z.roundToInt())
     }
 
     fun setColor(r: Float, g: Float, b: Float, a: Float) {
-        val color = floatArrayOf(r, g, b, a)
-        val colors = FloatArray(24 * 4)
-        for (i in 0 until 24) {
-            System.arraycopy(color, 0, colors, i * 4, 4)
+        for (color in faceColors) {
+            color[0] = r
+            color[1] = g
+            color[2] = b
+            color[3] = a
         }
-        colorBuffer.put(colors).position(0)
+        dirtyFaces = ALL_FACES
     }
 
-    fun draw(mvpMatrix: FloatArray, positionHandle: Int, colorHandle: Int, mvpMatrixHandle: Int) {
-        GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix, 0)
-
-        GLES20.glEnableVertexAttribArray(positionHandle)
-        vertexBuffer.position(0)
-        GLES20.glVertexAttribPointer(
-            positionHandle, 3,
-            GLES20.GL_FLOAT, false,
-            0, vertexBuffer
-        )
-
-        GLES20.glEnableVertexAttribArray(colorHandle)
-        colorBuffer.position(0)
-        GLES20.glVertexAttribPointer(
-            colorHandle, 4,
-            GLES20.GL_FLOAT, false,
-            0, colorBuffer
-        )
-
-        GLES20.glDrawElements(
-            GLES20.GL_TRIANGLES,
-            indices.size,
-            GLES20.GL_UNSIGNED_SHORT,
-            indexBuffer
-        )
-
-        GLES20.glDisableVertexAttribArray(positionHandle)
-        GLES20.glDisableVertexAttribArray(colorHandle)
-    }
-    private val faceColors = Array(6) { floatArrayOf(0.2f, 0.2f, 0.2f, 1f) }
+    private val faceColors = Array(6) { RESET_COLOR.copyOf() }
+    private val faceScratch = Array(6) { FloatArray(4) }
 
     fun setFaceColor(face: Int, color: FloatArray) {
         if (face in 0..5) {
             System.arraycopy(color, 0, faceColors[face], 0, 4)
-            updateColorBuffer()
+            dirtyFaces = dirtyFaces or (1 shl face)
         }
     }
 
     fun resetFaces() {
         for (i in 0..5) {
-            faceColors[i] = floatArrayOf(0.2f, 0.2f, 0.2f, 1f)
+            System.arraycopy(RESET_COLOR, 0, faceColors[i], 0, 4)
         }
-        updateColorBuffer()
+        dirtyFaces = ALL_FACES
     }
 
-    private fun updateColorBuffer() {
-        val colors = FloatArray(24 * 4)
+    // Новая грань i получает цвет старой грани sources[i]
+    fun permuteFaces(sources: IntArray) {
+        for (i in 0..5) System.arraycopy(faceColors[i], 0, faceScratch[i], 0, 4)
+        for (i in 0..5) {
+            if (sources[i] != i) {
+                System.arraycopy(faceScratch[sources[i]], 0, faceColors[i], 0, 4)
+                dirtyFaces = dirtyFaces or (1 shl i)
+            }
+        }
+    }
 
+    // Записывает изменённые грани в цвета вершин dst (участок кубика начинается с id * COLOR_FLOATS)
+    // и сбрасывает dirtyFaces
+    fun writeDirtyFaces(dst: FloatBuffer) {
         // Порядок граней: front, back, left, right, up, down
         // Каждая грань состоит из 4 вершин (4 угла квадрата)
-
-        // Front face (0)
-        System.arraycopy(faceColors[0], 0, colors, 0, 4)
-        System.arraycopy(faceColors[0], 0, colors, 4, 4)
-        System.arraycopy(faceColors[0], 0, colors, 8, 4)
-        System.arraycopy(faceColors[0], 0, colors, 12, 4)
-
-        // Back face (1)
-        System.arraycopy(faceColors[1], 0, colors, 16, 4)
-        System.arraycopy(faceColors[1], 0, colors, 20, 4)
-        System.arraycopy(faceColors[1], 0, colors, 24, 4)
-        System.arraycopy(faceColors[1], 0, colors, 28, 4)
-
-        // Left face (2)
-        System.arraycopy(faceColors[2], 0, colors, 32, 4)
-        System.arraycopy(faceColors[2], 0, colors, 36, 4)
-        System.arraycopy(faceColors[2], 0, colors, 40, 4)
-        System.arraycopy(faceColors[2], 0, colors, 44, 4)
-
-        // Right face (3)
-        System.arraycopy(faceColors[3], 0, colors, 48, 4)
-        System.arraycopy(faceColors[3], 0, colors, 52, 4)
-        System.arraycopy(faceColors[3], 0, colors, 56, 4)
-        System.arraycopy(faceColors[3], 0, colors, 60, 4)
-
-        // Up face (4)
-        System.arraycopy(faceColors[4], 0, colors, 64, 4)
-        System.arraycopy(faceColors[4], 0, colors, 68, 4)
-        System.arraycopy(faceColors[4], 0, colors, 72, 4)
-        System.arraycopy(faceColors[4], 0, colors, 76, 4)
-
-        // Down face (5)
-        System.arraycopy(faceColors[5], 0, colors, 80, 4)
-        System.arraycopy(faceColors[5], 0, colors, 84, 4)
-        System.arraycopy(faceColors[5], 0, colors, 88, 4)
-        System.arraycopy(faceColors[5], 0, colors, 92, 4)
-
-        colorBuffer.put(colors).position(0)
+        for (face in 0..5) {
+            if (dirtyFaces and (1 shl face) == 0) continue
+            val color = faceColors[face]
+            val offset = id * COLOR_FLOATS + face * FACE_FLOATS
+            for (vertex in 0..3) {
+                for (c in 0..3) dst.put(offset + vertex * 4 + c, color[c])
+            }
+        }
+        dirtyFaces = 0
     }
+
     fun getFaceColors(): Array<FloatArray> {
         return faceColors.map { it.copyOf() }.toTypedArray()
     }
 }
+// Кубики 3x3x3 по целочисленной позиции: слот (x + 1) * 9 + (y + 1) * 3 + z + 1 для x, y, z из -1..1
+class CubeGrid {
+    private val slots = arrayOfNulls<Cube>(27)
+
+    operator fun get(slot: Int): Cube = slots[slot] ?: throw IllegalStateException("No cube in slot $slot")
+
+    operator fun get(x: Int, y: Int, z: Int): Cube = get(slotOf(x, y, z))
+
+    fun place(cube: Cube) {
+        slots[cube.slot] = cube
+    }
+
+    // После перемещений, о которых сетка не знает (например, ходы RubikCubeManager)
+    fun reindex(cubes: List<Cube>) {
+        for (cube in cubes) place(cube)
+    }
+
+    companion object {
+        fun slotOf(x: Int, y: Int, z: Int) = (x + 1) * 9 + (y + 1) * 3 + z + 1
+
+        // LAYER_SLOTS[3 * axis + layer + 1] - девять слотов слоя layer (-1..1) вдоль оси axis (0 = x, 1 = y, 2 = z)
+        private val LAYER_SLOTS = Array(9) { i ->
+            val axis = i / 3
+            val layer = i % 3 - 1
+            IntArray(9) { k ->
+                val a = k / 3 - 1
+                val b = k % 3 - 1
+                when (axis) {
+                    0 -> slotOf(layer, a, b)
+                    1 -> slotOf(a, layer, b)
+                    else -> slotOf(a, b, layer)
+                }
+            }
+        }
+
+        fun layerSlots(axis: Int, layer: Int): IntArray = LAYER_SLOTS[3 * axis + layer + 1]
+    }
+}
+
 class RubikCubeManager(private val cubes: List<Cube>) {
     // Индексы граней
     companion object {
@@ -532,14 +765,17 @@ class RubikCubeManager(private val cubes: List<Cube>) {
         }
     }
     // Функция для выполнения хода
-    fun applyMove(move: String) {
-        when {
-            move.contains("F") -> rotateFront(move.contains("'"), move.contains("2"))
-            move.contains("B") -> rotateBack(move.contains("'"), move.contains("2"))
-            move.contains("L") -> rotateLeft(move.contains("'"), move.contains("2"))
-            move.contains("R") -> rotateRight(move.contains("'"), move.contains("2"))
-            move.contains("U") -> rotateUp(move.contains("'"), move.contains("2"))
-            move.contains("D") -> rotateDown(move.contains("'"), move.contains("2"))
+    // Функция для выполнения хода; move - индекс 3 * ось + степень - 1 (см. MoveSequence)
+    fun applyMove(move: Int) {
+        val prime = MoveSequence.power(move) == 3
+        val double = MoveSequence.power(move) == 2
+        when (MoveSequence.axis(move)) {
+            0 -> rotateUp(prime, double)
+            1 -> rotateRight(prime, double)
+            2 -> rotateFront(prime, double)
+            3 -> rotateDown(prime, double)
+            4 -> rotateLeft(prime, double)
+            5 -> rotateBack(prime, double)
         }
     }
     private fun getCube(x: Int, y: Int, z: Int): Cube {
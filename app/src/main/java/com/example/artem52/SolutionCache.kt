@@ -0,0 +1,28 @@
+package com.example.artem52
+
+/**
+ * Кэш решений в нативном коде. Один и тот же куб и кубы, симметричные ему (48 симметрий куба),
+ * решаются один раз; повторный solveCube сразу отдаёт решение из кэша.
+ * Кэш загружается из cacheDir при прогреве решателя и сохраняется туда через [save].
+ */
+object SolutionCache {
+    class Stats(val hits: Long, val misses: Long, val size: Int)
+
+    val stats: Stats
+        get() {
+            val values = LongArray(3)
+            nativeStats(values)
+            return Stats(values[0], values[1], values[2].toInt())
+        }
+
+    // Записывает кэш в файл, если он изменился. Блокирует поток - вызывать не из UI
+    external fun save(cacheDir: String): Boolean
+
+    external fun clear()
+
+    private external fun nativeStats(stats: LongArray)
+
+    init {
+        System.loadLibrary("cube-solver")
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.artem52
+
+/**
+ * Получает каждое найденное решение, которое короче предыдущих (см. MainActivity.solveCube),
+ * как индексы ходов (см. MoveSequence). Вызывается из потока, на котором идёт поиск.
+ */
+fun interface SolutionListener {
+    fun onSolution(moves: ByteArray)
+}
@@ -0,0 +1,34 @@
+package com.example.artem52
+
+/**
+ * Нативный флаг отмены решения. [handle] передаётся в solveCube; после [cancel] поиск
+ * останавливается и возвращает лучшее найденное решение (или ошибку, если решения ещё нет).
+ */
+class SolveCancellation : AutoCloseable {
+    val handle: Long = nativeCreate()
+    private var closed = false
+
+    @Synchronized
+    fun cancel() {
+        if (!closed) nativeCancel(handle)
+    }
+
+    // Вызывать только после того, как решение с этим флагом завершилось
+    @Synchronized
+    override fun close() {
+        if (!closed) {
+            closed = true
+            nativeDestroy(handle)
+        }
+    }
+
+    companion object {
+        @JvmStatic private external fun nativeCreate(): Long
+        @JvmStatic private external fun nativeCancel(handle: Long)
+        @JvmStatic private external fun nativeDestroy(handle: Long)
+
+        init {
+            System.loadLibrary("cube-solver")
+        }
+    }
+}
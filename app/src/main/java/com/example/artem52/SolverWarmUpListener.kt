@@ -0,0 +1,9 @@
+package com.example.artem52
+
+/**
+ * Прогресс загрузки/генерации таблиц решателя (см. MainActivity.warmUpSolver).
+ * Методы вызываются из потока, в котором идёт прогрев. Готовность - возврат из warmUpSolver.
+ */
+interface SolverWarmUpListener {
+    fun onProgress(tablesDone: Int, tablesTotal: Int, bytesDone: Long, bytesTotal: Long)
+}
@@ -0,0 +1,161 @@
+package com.example.artem52
+
+import android.opengl.GLES20
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Куб, нарисованный по состоянию наклеек: 27 кубиков одним мешем, где каждая вершина знает свой слот (позицию в
+ * CubeGrid) и номер наклейки своей грани. Цвета хранятся не в вершинах, а в двух маленьких текстурах: коды цветов
+ * 54 наклеек (FaceletSnapshot: 0..5 = URFDLB, 6 - пустая) и палитра. Ход или новая развёртка - одна выгрузка
+ * 54 байт через glTexSubImage2D.
+ *
+ * [create] и [draw] вызываются в GL-потоке; [set] и [permute] - из любого, выгрузка происходит в draw.
+ */
+class StickerBatch {
+    private val buffers = IntArray(2)
+    private val textures = IntArray(2)
+
+    // Коды цветов наклеек; переживают потерю контекста. Байт FACELET_COUNT - для внутренних граней кубиков.
+    private val stickers = ByteBuffer.allocateDirect(STICKER_TEXTURE_WIDTH).order(ByteOrder.nativeOrder())
+    private val scratch = ByteArray(FaceletSnapshot.FACELET_COUNT)
+    private var stickersDirty = false
+
+    init {
+        for (i in 0 until STICKER_TEXTURE_WIDTH) stickers.put(i, FaceletSnapshot.EMPTY_COLOR.toByte())
+    }
+
+    // stickerOfFace[slot * 6 + face] - наклейка на грани face кубика в слоте slot, -1 для внутренних граней
+    fun create(stickerOfFace: IntArray) {
+        GLES20.glGenBuffers(buffers.size, buffers, 0)
+        GLES20.glGenTextures(textures.size, textures, 0)
+
+        // x, y, z, слот, наклейка
+        val vertices = FloatArray(SLOTS * Cube.VERTEX_COUNT * 5)
+        for (slot in 0 until SLOTS) {
+            for (v in 0 until Cube.VERTEX_COUNT) {
+                val dst = (slot * Cube.VERTEX_COUNT + v) * 5
+                val sticker = stickerOfFace[slot * 6 + v / 4]
+                System.arraycopy(Cube.vertices, v * 3, vertices, dst, 3)
+                vertices[dst + 3] = slot.toFloat()
+                vertices[dst + 4] = (if (sticker < 0) FaceletSnapshot.FACELET_COUNT else sticker).toFloat()
+            }
+        }
+        val indices = ShortArray(SLOTS * Cube.indices.size)
+        for (slot in 0 until SLOTS) {
+            for (i in Cube.indices.indices) {
+                indices[slot * Cube.indices.size + i] = (Cube.indices[i] + slot * Cube.VERTEX_COUNT).toShort()
+            }
+        }
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[VERTICES])
+        val vertexData = ByteBuffer.allocateDirect(vertices.size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer()
+        vertexData.put(vertices).position(0)
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertices.size * 4, vertexData, GLES20.GL_STATIC_DRAW)
+
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[INDICES])
+        val indexData = ByteBuffer.allocateDirect(indices.size * 2).order(ByteOrder.nativeOrder()).asShortBuffer()
+        indexData.put(indices).position(0)
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.size * 2, indexData, GLES20.GL_STATIC_DRAW)
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0)
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0)
+
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1)
+        synchronized(this) {
+            stickers.position(0)
+            createTexture(textures[STICKERS], STICKER_TEXTURE_WIDTH, GLES20.GL_LUMINANCE, stickers)
+            stickersDirty = false
+        }
+        val palette = ByteBuffer.allocateDirect(PALETTE.size).order(ByteOrder.nativeOrder())
+        palette.put(PALETTE).position(0)
+        createTexture(textures[PALETTE_TEXTURE], PALETTE.size / 4, GLES20.GL_RGBA, palette)
+    }
+
+    private fun createTexture(texture: Int, width: Int, format: Int, data: ByteBuffer) {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture)
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST)
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST)
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE)
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE)
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, 1, 0, format, GLES20.GL_UNSIGNED_BYTE, data)
+    }
+
+    // color - код FaceletSnapshot
+    @Synchronized
+    fun set(facelet: Int, color: Int) {
+        stickers.put(facelet, color.toByte())
+        stickersDirty = true
+    }
+
+    // Наклейка i получает цвет наклейки sources[i]
+    @Synchronized
+    fun permute(sources: IntArray) {
+        for (i in scratch.indices) scratch[i] = stickers.get(i)
+        for (i in scratch.indices) stickers.put(i, scratch[sources[i]])
+        stickersDirty = true
+    }
+
+    // uModel (по слотам) должен быть уже загружен
+    fun draw(positionHandle: Int, slotHandle: Int, stickerHandle: Int, stickersHandle: Int, paletteHandle: Int) {
+        synchronized(this) {
+            if (stickersDirty) {
+                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[STICKERS])
+                stickers.position(0)
+                GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, FaceletSnapshot.FACELET_COUNT, 1,
+                    GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, stickers)
+                stickersDirty = false
+            }
+        }
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0)
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[STICKERS])
+        GLES20.glUniform1i(stickersHandle, 0)
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE1)
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[PALETTE_TEXTURE])
+        GLES20.glUniform1i(paletteHandle, 1)
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[VERTICES])
+        GLES20.glEnableVertexAttribArray(positionHandle)
+        GLES20.glVertexAttribPointer(positionHandle, 3, GLES20.GL_FLOAT, false, 20, 0)
+        GLES20.glEnableVertexAttribArray(slotHandle)
+        GLES20.glVertexAttribPointer(slotHandle, 1, GLES20.GL_FLOAT, false, 20, 12)
+        GLES20.glEnableVertexAttribArray(stickerHandle)
+        GLES20.glVertexAttribPointer(stickerHandle, 1, GLES20.GL_FLOAT, false, 20, 16)
+
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[INDICES])
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, SLOTS * Cube.indices.size, GLES20.GL_UNSIGNED_SHORT, 0)
+
+        GLES20.glDisableVertexAttribArray(positionHandle)
+        GLES20.glDisableVertexAttribArray(slotHandle)
+        GLES20.glDisableVertexAttribArray(stickerHandle)
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0)
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0)
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0)
+    }
+
+    companion object {
+        const val SLOTS = 27
+        // Ширина текстуры наклеек: 54 наклейки и код внутренних граней, с запасом до степени двойки
+        const val STICKER_TEXTURE_WIDTH = 64
+        // Число цветов палитры (ширина текстуры палитры)
+        const val PALETTE_SIZE = 8
+
+        private const val VERTICES = 0
+        private const val INDICES = 1
+        private const val STICKERS = 0
+        private const val PALETTE_TEXTURE = 1
+
+        // RGBA по коду FaceletSnapshot, как RotatingCubeRenderer.FACELET_COLORS
+        private val PALETTE = byteArrayOf(
+            -1, -1, -1, -1,          // Белый
+            -1, 0, 0, -1,            // Красный
+            0, -1, 0, -1,            // Зеленый
+            -1, -1, 0, -1,           // Желтый
+            -1, 127, 0, -1,          // Оранжевый
+            0, 0, -1, -1,            // Синий
+            51, 51, 51, -1,          // Серый (пустые наклейки и внутренние грани)
+            0, 0, 0, -1              // Не используется
+        )
+    }
+}
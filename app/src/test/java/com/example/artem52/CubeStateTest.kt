@@ -0,0 +1,57 @@
+package com.example.artem52
+
+import org.junit.Test
+
+import org.junit.Assert.*
+
+class CubeStateTest {
+    private val solvedFacelets = "UUUUUUUUURRRRRRRRRFFFFFFFFFDDDDDDDDDLLLLLLLLLBBBBBBBBB"
+
+    @Test
+    fun solved_matchesNative() {
+        // CUBESTATE_SOLVED_CORNERS и CUBESTATE_SOLVED_EDGES из cubestate.h
+        assertEquals(0x000000e629062080L, CubeState.SOLVED.corners)
+        assertEquals(0x0b52507314831040L, CubeState.SOLVED.edges)
+        assertEquals(solvedFacelets, CubeState.SOLVED.toFacelets())
+        assertEquals(CubeState.SOLVED, CubeState.fromFacelets(solvedFacelets))
+    }
+
+    @Test
+    fun move_matchesFromFacelets() {
+        // развёртки получены cubestate_move и cubestate_to_facelets в нативном коде
+        val r = CubeState.SOLVED.move(MoveSequence.parse("R").toByteArray())
+        assertEquals(CubeState.fromFacelets("UUFUUFUUFRRRRRRRRRFFDFFDFFDDDBDDBDDBLLLLLLLLLUBBUBBUBB"), r)
+
+        val scrambled = CubeState.SOLVED.move(MoveSequence.parse("F D U2 B R2 D'").toByteArray())
+        val facelets = "DRRUURUUBDFFDRUBBFBBRFFRRLLFUUDDLDDULRRLLDLLUDBFFBFLBB"
+        assertEquals(CubeState.fromFacelets(facelets), scrambled)
+        assertEquals(facelets, scrambled.toFacelets())
+    }
+
+    @Test
+    fun move_solvedBySolverSolution() {
+        // решение, которое нативный решатель выдаёт для этой развёртки
+        val cube = CubeState.fromFacelets("LLULULURRFBRFRRLULLUUFFDDFDRRFUDFRDBUDBRLLFBBBUFBBDDBD")!!
+        val solution = MoveSequence.parse("U2 B' R' U L' B' U L' F' U' L' U R2 B2 D' L2 U F2 B2 L2 U")
+        assertTrue(cube.move(solution.toByteArray()).isSolved)
+    }
+
+    @Test
+    fun move_inverseRestores() {
+        val moves = MoveSequence.parse("R U R' U' F2 L D' B")
+        val cube = CubeState.SOLVED.move(moves.toByteArray())
+        assertFalse(cube.isSolved)
+        assertEquals(CubeState.SOLVED, cube.move(moves.inverse().toByteArray()))
+    }
+
+    @Test
+    fun fromFacelets_rejectsBadCubes() {
+        assertNull(CubeState.fromFacelets(solvedFacelets.substring(1)))
+        assertNull(CubeState.fromFacelets("X" + solvedFacelets.substring(1)))
+        // перевёрнутое ребро UF
+        val flipped = solvedFacelets.toCharArray()
+        flipped[7] = 'F'
+        flipped[19] = 'U'
+        assertNull(CubeState.fromFacelets(String(flipped)))
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.artem52
+
+import org.junit.Test
+
+import org.junit.Assert.*
+
+class MoveSequenceTest {
+    @Test
+    fun simplify_cancelsCascade() {
+        // после сокращения "U U'" соседними становятся R и R'
+        assertTrue(MoveSequence.parse("R U U' R'").simplify().isEmpty())
+        assertEquals("F", MoveSequence.parse("F R U U' R'").simplify().toString())
+    }
+
+    @Test
+    fun simplify_mergesSameFace() {
+        assertEquals("R2", MoveSequence.parse("R R").simplify().toString())
+        assertEquals("R'", MoveSequence.parse("R R R").simplify().toString())
+        assertTrue(MoveSequence.parse("R R R R").simplify().isEmpty())
+        assertEquals("R", MoveSequence.parse("R2 R'").simplify().toString())
+    }
+
+    @Test
+    fun simplify_keepsOtherFaces() {
+        val moves = MoveSequence.parse("R L R")
+        assertSame(moves, moves.simplify())
+    }
+
+    @Test
+    fun parse_toString_roundTrip() {
+        val text = "U U2 U' R R2 R' F F2 F' D D2 D' L L2 L' B B2 B'"
+        val moves = MoveSequence.parse(text)
+        assertEquals(18, moves.size)
+        for (i in 0 until moves.size) assertEquals(i, moves[i])
+        assertEquals(text, moves.toString())
+        assertEquals(moves, MoveSequence.parse(moves.toString()))
+    }
+
+    @Test
+    fun parse_acceptsLowerCaseAndExtraSpaces() {
+        assertEquals(MoveSequence.parse("R U2 F'"), MoveSequence.parse("  r  u2 f' "))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun parse_rejectsUnknownMove() {
+        MoveSequence.parse("R X")
+    }
+
+    @Test
+    fun inverse_undoesSequence() {
+        val moves = MoveSequence.parse("R U2 F' D")
+        assertEquals("D' F U2 R'", moves.inverse().toString())
+        assertTrue((moves + moves.inverse()).simplify().isEmpty())
+    }
+}